@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates the {@link SyntheticWorld}s the benchmarks read, in temporary directories, so that results do not depend
+ * on a world that is not part of the source tree.
+ */
+final class BenchmarkWorld {
+    private BenchmarkWorld() {
+    }
+
+    /**
+     * Create a world of side x side chunks with the default settings in a new temporary directory.
+     *
+     * @param side the number of chunks along each side
+     * @return the world's level.dat
+     * @throws IOException if the world cannot be written
+     */
+    static File create(int side) throws IOException {
+        File worldDir = File.createTempFile("mcmapper-bench", "");
+        if (!worldDir.delete()) {
+            throw new IOException("Cannot create " + worldDir);
+        }
+        return new SyntheticWorld().generate(worldDir, side);
+    }
+
+    /**
+     * Get the chunks of a world created by {@link #create(int)}, not loaded.
+     *
+     * @param levelFile the world's level.dat
+     * @param side      the side passed to {@link #create(int)}
+     * @return the chunks, x major
+     */
+    static Chunk[] getChunks(File levelFile, int side) {
+        Chunk[] chunks = new Chunk[side * side];
+        StringBuilder path = new StringBuilder();
+        int i = 0;
+        for (int x = -side / 2; x < side - side / 2; x++) {
+            for (int z = -side / 2; z < side - side / 2; z++) {
+                chunks[i++] = new Chunk(ChunkIndex.getChunkFile(levelFile.getParentFile(), x, z, path), x, z);
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Create the map action for a coloring, as the command line does.
+     *
+     * @param levelFile the world's level.dat
+     * @param coloring  "plain" or "cartograph"
+     * @return the action
+     */
+    static DrawMapAction createAction(File levelFile, String coloring) {
+        if ("cartograph".equals(coloring)) {
+            return new HeightCuedDrawMapAction(levelFile, null, MapOrientation.NESW);
+        }
+        return new DrawMapAction(levelFile, null, MapOrientation.NESW);
+    }
+
+    /**
+     * Delete a world created by {@link #create(int)}.
+     *
+     * @param levelFile the world's level.dat
+     */
+    static void delete(File levelFile) {
+        deleteTree(levelFile.getParentFile());
+    }
+
+    private static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chunk file name parsing and building, against the regex and String.format code it replaced.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkFileNamesBenchmark {
+    private static final int SIDE = 256;
+
+    private String[] names;
+    private final StringBuilder builder = new StringBuilder();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        this.names = new String[SIDE * SIDE];
+        for (int i = 0; i < this.names.length; i++) {
+            int x = i / SIDE - SIDE / 2;
+            int z = i % SIDE - SIDE / 2;
+            this.names[i] = String.format("c.%s.%s.dat", Integer.toString(x, 36), Integer.toString(z, 36));
+        }
+    }
+
+    private String nextName() {
+        return this.names[this.next++ & (SIDE * SIDE - 1)];
+    }
+
+    @Benchmark
+    public long parseRegex() {
+        // compiled every time, as the replaced code did
+        Pattern p = Pattern.compile("^c\\.(-?[0-9a-z]+).(-?[0-9a-z]+)\\.dat$");
+        Matcher m = p.matcher(this.nextName());
+        if (m.matches()) {
+            return Integer.parseInt(m.group(1), 36) + Integer.parseInt(m.group(2), 36);
+        }
+        return 0;
+    }
+
+    @Benchmark
+    public long parse() {
+        return ChunkFileNames.parse(this.nextName());
+    }
+
+    @Benchmark
+    public String buildFormat() {
+        int i = this.next++;
+        return String.format("c.%s.%s.dat", Integer.toString(i >> 8, 36), Integer.toString(i & 255, 36));
+    }
+
+    @Benchmark
+    public int build() {
+        int i = this.next++;
+        this.builder.setLength(0);
+        return ChunkFileNames.appendName(this.builder, i >> 8, i & 255).length();
+    }
+}
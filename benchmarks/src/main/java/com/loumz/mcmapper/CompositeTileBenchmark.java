@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compositing rendered tiles into the in-memory image, in render order. Only the image output is measured: the
+ * streaming outputs accept every tile once, while the benchmark writes the same tiles over and over.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompositeTileBenchmark {
+    private static final int SIDE = 16;
+
+    @Param({"plain", "cartograph"})
+    public String coloring;
+
+    private File levelFile;
+    private DrawMapAction action;
+    private Chunk[] chunks;
+    private int[][] tiles;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.levelFile = BenchmarkWorld.create(SIDE);
+        this.action = BenchmarkWorld.createAction(this.levelFile, this.coloring);
+        this.action.setOutputFile(File.createTempFile("mcmapper-bench", ".png"));
+        this.action.gatherChunks();
+        this.action.createCompositeCanvas();
+        this.action.sortChunks();
+        ArrayList<Chunk> sorted = new ArrayList<Chunk>();
+        while (this.action.hasChunks()) {
+            sorted.add(this.action.getNextChunk());
+        }
+        this.chunks = sorted.toArray(new Chunk[sorted.size()]);
+        this.tiles = new int[this.chunks.length][16 * 16];
+        for (int i = 0; i < this.chunks.length; i++) {
+            this.action.renderChunk(this.chunks[i], this.tiles[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.action.disposeCompositeCanvas();
+        this.action.getOutputFile().delete();
+        BenchmarkWorld.delete(this.levelFile);
+    }
+
+    @Benchmark
+    public void composite() throws IOException {
+        int i = this.next++ % this.chunks.length;
+        this.action.compositeTile(this.chunks[i], this.tiles[i]);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import com.loumz.mcmapper.nbt.NbtItem;
+import com.loumz.mcmapper.nbt.NbtReader;
+import com.loumz.mcmapper.nbt.NbtTagPaths;
+import com.loumz.mcmapper.nbt.NbtVisitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing one decompressed alpha chunk, tag by tag with {@link NbtReader#readNext()} and selectively with
+ * {@link NbtReader#accept(NbtTagPaths, NbtVisitor)} as chunk loading does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NbtReaderBenchmark {
+    private static final NbtTagPaths CHUNK_TAGS = new NbtTagPaths(
+            "Level/Blocks", "Level/xPos", "Level/zPos", "Level/BlockLight", "Level/SkyLight");
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        this.data = new SyntheticWorld().createChunk(0, 0);
+    }
+
+    @Benchmark
+    public int readNext() throws IOException {
+        NbtReader reader = new NbtReader(this.data, 0, this.data.length);
+        int items = 0;
+        NbtItem item;
+        while ((item = reader.readNext()) != null) {
+            items++;
+        }
+        return items;
+    }
+
+    @Benchmark
+    public void accept(final Blackhole blackhole) throws IOException {
+        NbtReader reader = new NbtReader(ByteBuffer.wrap(this.data));
+        reader.accept(CHUNK_TAGS, new NbtVisitor() {
+            @Override
+            public void visitInt(int id, int value) {
+                blackhole.consume(value);
+            }
+
+            @Override
+            public void visitByteArray(int id, ByteBuffer data, int offset, int length) {
+                blackhole.consume(data.get(offset + length - 1));
+            }
+        });
+    }
+}
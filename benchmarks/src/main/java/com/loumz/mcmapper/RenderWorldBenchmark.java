@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a whole world to a file, from gathering the chunks to writing the image, with the default thread
+ * count. The chunk index is kept between runs, as it is between runs of the command line. Larger worlds can be
+ * measured with e.g. -p side=256.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderWorldBenchmark {
+    @Param({"32"})
+    public int side;
+
+    @Param({"plain", "cartograph"})
+    public String coloring;
+
+    @Param({"IMAGE", "STREAMING_PNG"})
+    public OutputFormat outputFormat;
+
+    private File levelFile;
+    private File outputFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.levelFile = BenchmarkWorld.create(this.side);
+        this.outputFile = File.createTempFile("mcmapper-bench", ".png");
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.outputFile.delete();
+        BenchmarkWorld.delete(this.levelFile);
+    }
+
+    @Benchmark
+    public long render() throws Exception {
+        DrawMapAction action = BenchmarkWorld.createAction(this.levelFile, this.coloring);
+        action.setOutputFile(this.outputFile);
+        action.setOutputFormat(this.outputFormat);
+        action.run();
+        if (action.getFailure() != null) {
+            throw action.getFailure();
+        }
+        return this.outputFile.length();
+    }
+}
@@ -23,26 +23,60 @@
 package com.loumz.mcmapper;
 
 import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.concurrent.Callable;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 
 public abstract class AbstractDrawMapAction implements Runnable {
+    private static final int STATUS_INTERVAL = 64;
+
+    /**
+     * A chunk handed out for rendering and the tile it is rendered into.
+     */
+    private static final class RenderedTile {
+        final Chunk chunk;
+        final int[] tile;
+        private boolean done;
+        private boolean ok;
+
+        RenderedTile(Chunk chunk, int[] tile) {
+            this.chunk = chunk;
+            this.tile = tile;
+        }
+
+        synchronized void complete(boolean ok) {
+            this.ok = ok;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized boolean await() throws InterruptedException {
+            while (!this.done) {
+                wait();
+            }
+            return this.ok;
+        }
+    }
+
     protected File baseFile;
     protected PickerFrame frame;
     protected ExecutorService executor;
+    private Exception failure;
+    private RenderStats stats;
 
     public AbstractDrawMapAction(PickerFrame frame, File baseFile) {
         this.frame = frame;
         this.baseFile = baseFile;
-        this.executor = createExecutor();
     }
 
     /**
      * Returns the executor to be used by this class to execute actions in multiple threads.
+     * Called at the start of {@link #run()}, so subclasses may use their own fields to configure it. The executor
+     * is shut down when the run ends.
      *
      * @return the executor to be used.
      */
@@ -72,63 +106,108 @@ public abstract class AbstractDrawMapAction implements Runnable {
 
     /**
      * Creates the canvas to composite on.
+     *
+     * @throws IOException if the output cannot be created
      */
-    protected abstract void createCompositeCanvas();
+    protected abstract void createCompositeCanvas() throws IOException;
 
     /**
-     * Create callable that will render the chunk to the BufferedImage.
+     * Release whatever the canvas holds on to. Called at the end of every run, including failed ones.
+     */
+    protected void disposeCompositeCanvas() {
+    }
+
+    /**
+     * Load and render a chunk into a 16x16 tile. Called from the executor's threads, so it must not touch shared
+     * state. Every pixel of the tile must be written, tiles are reused.
      *
-     * @param chunk         the chunk to render
-     * @param bufferedImage the image to render to
-     * @return the callable
+     * @param chunk the chunk to render
+     * @param tile  16x16 packed premultiplied ARGB pixels, row by row in image orientation
+     * @throws Exception if the chunk cannot be rendered
      */
-    protected abstract Callable<Object> createCallable(Chunk chunk, BufferedImage bufferedImage);
+    protected abstract void renderChunk(Chunk chunk, int[] tile) throws Exception;
 
     /**
-     * Create a single BufferedImage for a chunk.
+     * Copy a rendered tile onto the composite canvas. Only called from the thread running {@link #run()}, once for
+     * every chunk; chunks that failed to render come as a transparent tile.
      *
-     * @return the BufferedImage
+     * @param chunk the chunk that was rendered
+     * @param tile  the tile rendered by {@link #renderChunk(Chunk, int[])}
+     * @throws IOException if the tile cannot be written out
      */
-    protected abstract BufferedImage createBufferedImage();
+    protected abstract void compositeTile(Chunk chunk, int[] tile) throws IOException;
 
     /**
-     * Sort chunks for batching & rendering.
+     * Sort chunks for rendering.
      */
     protected abstract void sortChunks();
 
     /**
      * Get chunks from the fs.
+     *
+     * @throws IOException if the chunks cannot be listed
      */
-    protected abstract void gatherChunks();
+    protected abstract void gatherChunks() throws IOException;
 
     public void run() {
+        this.failure = null;
+        this.stats = new RenderStats();
         try {
-
+            this.executor = createExecutor();
             setStatus("Gathering chunks...");
+            long start = System.nanoTime();
+            long allocated = RenderStats.getAllocatedBytes();
             gatherChunks();
+            this.stats.add(RenderStats.Stage.SCAN, start, allocated);
+            start = System.nanoTime();
+            allocated = RenderStats.getAllocatedBytes();
             createCompositeCanvas();
+            this.stats.add(RenderStats.Stage.SETUP, start, allocated);
             setStatus("Sorting chunks...");
+            start = System.nanoTime();
+            allocated = RenderStats.getAllocatedBytes();
             sortChunks();
-            java.util.List<BufferedImage> batchImages = new ArrayList<BufferedImage>();
-            java.util.List<Chunk> nextBatch = new ArrayList<Chunk>();
-            int totalChunks = getTotalChunks();
-            int chunksRendered = 0;
-            while (hasChunks()) {
-                getNextBatch(nextBatch);
-                setStatus("Rendering... " + chunksRendered + "/" + totalChunks);
-                renderChunkBatch(nextBatch, batchImages);
-                chunksRendered += nextBatch.size();
-                renderBatchResult(nextBatch, batchImages);
-            }
+            this.stats.add(RenderStats.Stage.SORT, start, allocated);
+            renderChunks();
             setStatus("Writing image...");
+            start = System.nanoTime();
+            allocated = RenderStats.getAllocatedBytes();
             writeAndDisplayImage();
+            this.stats.add(RenderStats.Stage.ENCODE, start, allocated);
         }
         catch (final Exception e) {
+            this.failure = e;
             e.printStackTrace();
             if (frame != null) {
                 setStatus("Exception: " + e.toString());
             }
         }
+        finally {
+            disposeCompositeCanvas();
+            if (this.executor != null) {
+                this.executor.shutdown();
+                this.executor = null;
+            }
+            this.stats.finish();
+        }
+    }
+
+    /**
+     * Get the statistics of the last or current {@link #run()}.
+     *
+     * @return the statistics, or null before the first run
+     */
+    public RenderStats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * Get the exception that made the last {@link #run()} fail.
+     *
+     * @return the exception, or null if the last run completed normally.
+     */
+    public Exception getFailure() {
+        return failure;
     }
 
     /**
@@ -139,49 +218,122 @@ public abstract class AbstractDrawMapAction implements Runnable {
     protected abstract int getTotalChunks();
 
     /**
-     * Render the result onto the composite image.
+     * Render all chunks. Chunks are handed to the executor in order, and the finished tiles are composited in the
+     * same order on this thread while the executor renders the next ones. At most {@link #getMaxChunksInFlight()}
+     * chunks are rendering or waiting to be composited at any time.
      *
-     * @param chunks the chunks that were rendered
-     * @param images the images resulting from rendering the chunks
+     * @throws InterruptedException if interrupted while waiting for a tile
+     * @throws IOException          if a tile cannot be composited
      */
-    protected abstract void renderBatchResult(java.util.List<Chunk> chunks, java.util.List<BufferedImage> images);
-
-    protected final void renderChunkBatch(java.util.List<Chunk> batch, java.util.List<BufferedImage> batchImages) {
-        java.util.List<Callable<Object>> callables = new ArrayList<Callable<Object>>(batch.size());
-        while (batchImages.size() < batch.size()) {
-            batchImages.add(createBufferedImage());
-        }
-        for (int i = 0; i < batch.size(); i++) {
-            callables.add(createCallable(batch.get(i), batchImages.get(i)));
-        }
-        try {
-            java.util.List<Future<Object>> futures = this.executor.invokeAll(callables);
-            for (Future<Object> f : futures) {
-                if (!f.isDone()) {
-                    System.err.println("oops!");
+    protected final void renderChunks() throws InterruptedException, IOException {
+        int maxInFlight = Math.max(1, getMaxChunksInFlight());
+        Queue<RenderedTile> inFlight = new LinkedList<RenderedTile>();
+        java.util.List<int[]> freeTiles = new ArrayList<int[]>(maxInFlight);
+        int totalChunks = getTotalChunks();
+        int chunksRendered = 0;
+        final RenderStats stats = this.stats;
+        setStatus("Rendering... 0/" + totalChunks);
+        while (!inFlight.isEmpty() || hasChunks()) {
+            while (inFlight.size() < maxInFlight && hasChunks()) {
+                final Chunk chunk = getNextChunk();
+                int[] tile = freeTiles.isEmpty() ? new int[16 * 16] : freeTiles.remove(freeTiles.size() - 1);
+                final RenderedTile rendered = new RenderedTile(chunk, tile);
+                inFlight.add(rendered);
+                long start = System.nanoTime();
+                long allocated = RenderStats.getAllocatedBytes();
+                boolean cached = loadCachedTile(chunk, tile);
+                stats.add(RenderStats.Stage.CACHE, start, allocated);
+                if (cached) {
+                    stats.addCachedChunk();
+                    rendered.complete(true);
+                    continue;
                 }
+                this.executor.execute(new Runnable() {
+                    public void run() {
+                        boolean ok = false;
+                        LoadCounters counters = LoadCounters.get();
+                        counters.reset();
+                        long start = System.nanoTime();
+                        long allocated = RenderStats.getAllocatedBytes();
+                        try {
+                            renderChunk(chunk, rendered.tile);
+                            ok = true;
+                        }
+                        catch (Exception e) {
+                            System.err.println("Cannot render chunk " + chunk.getX() + ", " + chunk.getZ());
+                            e.printStackTrace();
+                        }
+                        finally {
+                            stats.addChunk(counters, System.nanoTime() - start,
+                                    RenderStats.getAllocatedBytes() - allocated, ok);
+                            rendered.complete(ok);
+                        }
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            long allocated = RenderStats.getAllocatedBytes();
+            RenderedTile rendered = inFlight.remove();
+            boolean ok = rendered.await();
+            stats.add(RenderStats.Stage.WAIT, start, allocated);
+            if (!ok) {
+                Arrays.fill(rendered.tile, 0);
+            }
+            start = System.nanoTime();
+            allocated = RenderStats.getAllocatedBytes();
+            compositeTile(rendered.chunk, rendered.tile);
+            stats.add(RenderStats.Stage.COMPOSITE, start, allocated);
+            start = System.nanoTime();
+            allocated = RenderStats.getAllocatedBytes();
+            // where the render cache stores the tile
+            tileCompleted(rendered.chunk, rendered.tile, ok);
+            stats.add(RenderStats.Stage.CACHE, start, allocated);
+            freeTiles.add(rendered.tile);
+            chunksRendered++;
+            if (chunksRendered % STATUS_INTERVAL == 0) {
+                setStatus("Rendering... " + chunksRendered + "/" + totalChunks);
             }
         }
-        catch (InterruptedException e) {
-            e.printStackTrace();
-        }
     }
 
     /**
-     * Gets the next batch of chunks. A batch of chunks can be rendered and composited together without any
-     * precedence problems.
+     * Fill a chunk's tile from a previous run instead of rendering it. Called on the thread running {@link #run()},
+     * for every chunk in render order, before the chunk is handed to the executor.
+     *
+     * @param chunk the chunk about to be rendered
+     * @param tile  the tile to fill
+     * @return true if the tile was filled and the chunk need not be rendered
+     * @throws IOException if reading the previous tile fails
+     */
+    protected boolean loadCachedTile(Chunk chunk, int[] tile) throws IOException {
+        return false;
+    }
+
+    /**
+     * Called after {@link #compositeTile(Chunk, int[])}, for every chunk in render order.
+     *
+     * @param chunk the chunk
+     * @param tile  the tile, rendered or loaded by {@link #loadCachedTile(Chunk, int[])}
+     * @param ok    false if the chunk could not be rendered and the tile is blank
+     * @throws IOException on write errors
+     */
+    protected void tileCompleted(Chunk chunk, int[] tile, boolean ok) throws IOException {
+    }
+
+    /**
+     * Gets the next chunk to render.
      *
-     * @param nextBatch list to fill in with the next batch of chunks
+     * @return the next chunk
      */
-    protected abstract void getNextBatch(java.util.List<Chunk> nextBatch);
+    protected abstract Chunk getNextChunk();
 
     /**
-     * Get maximum number of chunks to be rendered at one time.
-     * This also controls the number of chunks and BufferedImages loaded at one time.
+     * Get maximum number of chunks being rendered or waiting to be composited at one time.
+     * This controls the number of chunks and tiles loaded at one time.
      *
-     * @return the maximum batch size.
+     * @return the maximum number of chunks in flight.
      */
-    protected abstract int getMaxBatchSize();
+    protected abstract int getMaxChunksInFlight();
 
     protected abstract boolean hasChunks();
 }
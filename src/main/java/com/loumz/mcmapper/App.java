@@ -29,6 +29,12 @@ import java.awt.*;
  */
 public class App {
     public static void main(String[] args) {
+        if (args.length > 0) {
+            // render from the command line, never touch the display
+            System.setProperty("java.awt.headless", "true");
+            CommandLine.main(args);
+            return;
+        }
         try {
             Class cl = Class.forName("com.loumz.mcmapper.osx.OSXInitialization");
             ((Runnable)cl.newInstance()).run();
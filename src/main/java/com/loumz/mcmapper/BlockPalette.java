@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+/**
+ * Colors and properties of the 256 block ids, in tables indexed by the unsigned id so that renderers get what they
+ * need for a block from one array element per table.
+ */
+public final class BlockPalette {
+    /**
+     * Property bit of water and ice, which are drawn see-through when nothing is above them.
+     */
+    public static final int WATERY = 1;
+    /**
+     * Property bit of lava, fire and torches, which are drawn at full brightness whatever the light.
+     */
+    public static final int FIERY = 2;
+    /**
+     * The brightness at which colors are drawn as they are.
+     */
+    public static final int FULL_BRIGHTNESS = 128;
+
+    private static final int BLOCK_IDS = 256;
+
+    private final int[] colors = new int[BLOCK_IDS];
+    private final int[] shadedColors = new int[BLOCK_IDS * (FULL_BRIGHTNESS + 1)];
+    private final byte[] properties = new byte[BLOCK_IDS];
+
+    /**
+     * Create a palette.
+     *
+     * @param rgba   R/G/B/A values of each block id from 0, 4 per id; ids past the end get the color of id 0
+     * @param watery ids of the blocks with the {@link #WATERY} property
+     * @param fiery  ids of the blocks with the {@link #FIERY} property
+     */
+    public BlockPalette(int[] rgba, int[] watery, int[] fiery) {
+        for (int id = 0; id < BLOCK_IDS; id++) {
+            int ofs = id * 4 < rgba.length ? id * 4 : 0;
+            int color = (rgba[ofs + 3] << 24) | (rgba[ofs] << 16) | (rgba[ofs + 1] << 8) | rgba[ofs + 2];
+            this.colors[id] = color;
+            for (int brightness = 0; brightness <= FULL_BRIGHTNESS; brightness++) {
+                this.shadedColors[id * (FULL_BRIGHTNESS + 1) + brightness] = shade(color, brightness);
+            }
+        }
+        for (int id : watery) {
+            this.properties[id & 0xff] |= WATERY;
+        }
+        for (int id : fiery) {
+            this.properties[id & 0xff] |= FIERY;
+        }
+    }
+
+    /**
+     * Get the color of a block.
+     *
+     * @param b block id
+     * @return the color, packed ARGB, not premultiplied
+     */
+    public int getColor(byte b) {
+        return this.colors[b & 0xff];
+    }
+
+    /**
+     * Get the color of a block with R/G/B scaled by a brightness and rounded down. Alpha is left as it is.
+     *
+     * @param b          block id
+     * @param brightness 0 to {@link #FULL_BRIGHTNESS}
+     * @return the color, packed ARGB, not premultiplied
+     */
+    public int getShadedColor(byte b, int brightness) {
+        return this.shadedColors[(b & 0xff) * (FULL_BRIGHTNESS + 1) + brightness];
+    }
+
+    /**
+     * Get the properties of a block.
+     *
+     * @param b block id
+     * @return the property bits, {@link #WATERY} and {@link #FIERY}
+     */
+    public int getProperties(byte b) {
+        return this.properties[b & 0xff];
+    }
+
+    /**
+     * Scale the R/G/B values of a color by a brightness, rounding down.
+     *
+     * @param color      the color, packed ARGB, not premultiplied
+     * @param brightness 0 to {@link #FULL_BRIGHTNESS}
+     * @return the shaded color
+     */
+    static int shade(int color, int brightness) {
+        return (color & 0xff000000) | ((((color >> 16) & 0xff) * brightness >> 7) << 16)
+                | ((((color >> 8) & 0xff) * brightness >> 7) << 8) | ((color & 0xff) * brightness >> 7);
+    }
+}
@@ -22,91 +22,533 @@
 
 package com.loumz.mcmapper;
 
-import com.loumz.mcmapper.nbt.NbtByteArrayItem;
-import com.loumz.mcmapper.nbt.NbtIntItem;
+import com.loumz.mcmapper.nbt.DecompressionContext;
 import com.loumz.mcmapper.nbt.NbtItem;
 import com.loumz.mcmapper.nbt.NbtReader;
+import com.loumz.mcmapper.nbt.NbtTagPaths;
+import com.loumz.mcmapper.nbt.NbtVisitor;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 public final class Chunk {
+    private static final int TAG_BLOCKS = 0;
+    private static final int TAG_X_POS = 1;
+    private static final int TAG_Z_POS = 2;
+    private static final int TAG_BLOCK_LIGHT = 3;
+    private static final int TAG_SKY_LIGHT = 4;
+    private static final NbtTagPaths CHUNK_TAGS = new NbtTagPaths(
+            "Level/Blocks", "Level/xPos", "Level/zPos", "Level/BlockLight", "Level/SkyLight");
+    // same ids as CHUNK_TAGS, without the light arrays
+    private static final NbtTagPaths BLOCK_TAGS = new NbtTagPaths(
+            "Level/Blocks", "Level/xPos", "Level/zPos");
+
+    // Anvil chunks keep their tags under Level before 1.18 and in the root compound since. A chunk has only one of
+    // the layouts, so each gets its own paths, with the same ids, and reading stops once those have been visited.
+    private static final int TAG_ANVIL_X_POS = 0;
+    private static final int TAG_ANVIL_Z_POS = 1;
+    private static final int TAG_SECTION = 2;
+    private static final int TAG_SECTION_Y = 3;
+    private static final int TAG_SECTION_PALETTE_NAME = 4;
+    private static final int TAG_SECTION_BLOCK_STATES = 5;
+    private static final int TAG_SECTION_BLOCKS = 6;
+    private static final int TAG_SECTION_BLOCK_LIGHT = 7;
+    private static final int TAG_SECTION_SKY_LIGHT = 8;
+    private static final String[] ANVIL_PATHS = {
+            "Level/xPos", "Level/zPos", "Level/Sections", "Level/Sections/Y", "Level/Sections/Palette/Name",
+            "Level/Sections/BlockStates", "Level/Sections/Blocks", "Level/Sections/BlockLight",
+            "Level/Sections/SkyLight"
+    };
+    // 1.18 chunks never have block ids
+    private static final String[] ANVIL_PATHS_1_18 = {
+            "xPos", "zPos", "sections", "sections/Y", "sections/block_states/palette/Name", "sections/block_states/data",
+            null, "sections/BlockLight", "sections/SkyLight"
+    };
+    private static final NbtTagPaths ANVIL_TAGS = new NbtTagPaths(ANVIL_PATHS);
+    private static final NbtTagPaths ANVIL_TAGS_1_18 = new NbtTagPaths(ANVIL_PATHS_1_18);
+    // the same without the light arrays, which come last
+    private static final NbtTagPaths ANVIL_BLOCK_TAGS = new NbtTagPaths(
+            Arrays.copyOf(ANVIL_PATHS, TAG_SECTION_BLOCK_LIGHT));
+    private static final NbtTagPaths ANVIL_BLOCK_TAGS_1_18 = new NbtTagPaths(
+            Arrays.copyOf(ANVIL_PATHS_1_18, TAG_SECTION_BLOCK_LIGHT));
+    private static final byte[] LEVEL = {'L', 'e', 'v', 'e', 'l'};
+
     private File file;
+    // the region holding the chunk, null for a chunk in its own file
+    private RegionFile region;
     private int x;
     private int z;
-    private byte[] blockBytes;
-    private byte[] skyLightBytes;
-    private byte[] blockLightBytes;
+    // the block and light arrays of the chunk, copied out of the decompressed NBT data into one array
+    private byte[] data;
+    private int blocksOffset = -1;
+    // light values are kept packed, two per byte
+    private int skyLightOffset = -1;
+    private int blockLightOffset = -1;
+    // the non-empty sections of an Anvil chunk by section y - minSection, null for empty sections
+    private ChunkSection[] sections;
+    private int minSection;
+    // y and id of the topmost non-air block of each column, indexed by x * 16 + z
+    private short[] heights;
+    private byte[] topBlocks;
     private boolean ok = true;
 
     public Chunk(File f) throws IOException {
         this.file = f;
-        final Pattern p = Pattern.compile("^c\\.(-?[0-9a-z]+).(-?[0-9a-z]+)\\.dat$");
-        Matcher m = p.matcher(f.getName());
-        if (!m.matches()) {
+        long packed = ChunkFileNames.parse(f.getName());
+        if (packed == ChunkFileNames.NOT_A_CHUNK) {
             throw new IOException("File name " + f.getName() + " does not match pattern. Cannot get xz for sorting.");
         }
-        this.x = LevelUtil.un36(m.group(1));
-        this.z = LevelUtil.un36(m.group(2));
+        this.x = ChunkIndex.unpackX(packed);
+        this.z = ChunkIndex.unpackZ(packed);
+    }
+
+    /**
+     * Create a chunk whose coordinates are already known, e.g. from a {@link ChunkIndex}.
+     *
+     * @param f the chunk file
+     * @param x chunk x
+     * @param z chunk z
+     */
+    public Chunk(File f, int x, int z) {
+        this.file = f;
+        this.x = x;
+        this.z = z;
+    }
+
+    /**
+     * Create a chunk stored in a region file.
+     *
+     * @param region the region file
+     * @param x      chunk x
+     * @param z      chunk z
+     */
+    public Chunk(RegionFile region, int x, int z) {
+        this.file = region.getFile();
+        this.region = region;
+        this.x = x;
+        this.z = z;
     }
 
     public void load() throws IOException {
-        NbtReader r = new NbtReader(new FileInputStream(this.file));
+        this.load(true);
+    }
+
+    /**
+     * Load the chunk data. The decompressed data is parsed in the thread's decompression buffer, and only the block,
+     * block state and light arrays are then copied into one array of the chunk's own.
+     *
+     * @param loadLight whether to load the light arrays. If false, the light accessors must not be called.
+     * @throws IOException if the chunk cannot be read
+     */
+    public void load(boolean loadLight) throws IOException {
+        LoadCounters counters = LoadCounters.get();
+        long start = System.nanoTime();
+        long startAllocated = RenderStats.getAllocatedBytes();
+        DecompressionContext context = DecompressionContext.get();
+        int length = this.region != null ? this.region.inflateChunk(this.x, this.z, context)
+                : context.inflateGzip(this.file);
+        long inflated = System.nanoTime();
+        long inflatedAllocated = RenderStats.getAllocatedBytes();
+        counters.bytesRead += context.getCompressedLength();
+        counters.bytesInflated += length;
+        counters.inflateNanos += inflated - start;
+        counters.inflateAllocated += inflatedAllocated - startAllocated;
+        try {
+            this.parse(context.getOutput(), length, loadLight);
+        }
+        finally {
+            counters.parseNanos += System.nanoTime() - inflated;
+            counters.parseAllocated += RenderStats.getAllocatedBytes() - inflatedAllocated;
+        }
+    }
+
+    /**
+     * Find the block and light arrays in the decompressed data and copy them out of it.
+     *
+     * @param nbt    the decompressed data, only valid until the thread decompresses something else
+     * @param length the length of the data
+     */
+    private void parse(byte[] nbt, int length, boolean loadLight) throws IOException {
+        this.data = null;
+        this.blocksOffset = -1;
+        this.blockLightOffset = -1;
+        this.skyLightOffset = -1;
+        // the buffer wraps nbt from index 0, so the offsets of array tags are indexes into nbt
+        NbtReader r = new NbtReader(nbt, 0, length);
+        if (this.region != null && this.region.isAnvil()) {
+            try {
+                this.loadSections(r, nbt, length, loadLight);
+            }
+            finally {
+                r.close();
+            }
+            this.computeSectionHeights();
+            return;
+        }
         try {
-            NbtItem item = null;
-            this.blockBytes = null;
-
-            item = r.readNext();
-            while (item != null) {
-                if (item.getClass() == NbtByteArrayItem.class) {
-                    if ("Blocks".equals(item.getName())) {
-                        this.blockBytes = ((NbtByteArrayItem) item).getValue();
+            r.accept(loadLight ? CHUNK_TAGS : BLOCK_TAGS, new NbtVisitor() {
+                @Override
+                public void visitByteArray(int id, ByteBuffer data, int offset, int length) throws IOException {
+                    switch (id) {
+                        case TAG_BLOCKS:
+                            if (length != 16 * 16 * 128) {
+                                throw new IOException("Malformed blocks in " + Chunk.this.file);
+                            }
+                            Chunk.this.blocksOffset = offset;
+                            break;
+                        case TAG_BLOCK_LIGHT:
+                            Chunk.this.blockLightOffset = checkLight(offset, length);
+                            break;
+                        case TAG_SKY_LIGHT:
+                            Chunk.this.skyLightOffset = checkLight(offset, length);
+                            break;
                     }
-                    else if ("BlockLight".equals(item.getName())) {
-                        this.blockLightBytes = this.unpack(((NbtByteArrayItem) item).getValue());
+                }
+
+                @Override
+                public void visitInt(int id, int value) throws IOException {
+                    if (id == TAG_X_POS && value != Chunk.this.x) {
+                        throw new IOException("in-file x not equal to in-filename x");
                     }
-                    else if ("SkyLight".equals(item.getName())) {
-                        this.skyLightBytes = this.unpack(((NbtByteArrayItem) item).getValue());
+                    else if (id == TAG_Z_POS && value != Chunk.this.z) {
+                        throw new IOException("in-file z not equal to in-filename z");
                     }
                 }
-                else if (item.getClass() == NbtIntItem.class) {
-                    if ("xPos".equals(item.getName())) {
-                        int inFileX = ((NbtIntItem) item).getValue();
-                        if (inFileX != this.x) {
-                            throw new IOException("in-file x not equal to in-filename x");
-                        }
+            });
+        }
+        finally {
+            r.close();
+        }
+        if (this.blocksOffset < 0) {
+            throw new IOException("Missing blocks in " + this.file);
+        }
+        if (loadLight && (this.blockLightOffset < 0 || this.skyLightOffset < 0)) {
+            throw new IOException("Missing light in " + this.file);
+        }
+        int blocksLength = 16 * 16 * 128;
+        int lightLength = blocksLength / 2;
+        this.data = new byte[loadLight ? blocksLength + 2 * lightLength : blocksLength];
+        System.arraycopy(nbt, this.blocksOffset, this.data, 0, blocksLength);
+        this.blocksOffset = 0;
+        if (loadLight) {
+            System.arraycopy(nbt, this.blockLightOffset, this.data, blocksLength, lightLength);
+            System.arraycopy(nbt, this.skyLightOffset, this.data, blocksLength + lightLength, lightLength);
+            this.blockLightOffset = blocksLength;
+            this.skyLightOffset = blocksLength + lightLength;
+        }
+        this.computeHeights();
+    }
+
+    private int checkLight(int offset, int length) throws IOException {
+        if (length != 16 * 16 * 128 / 2) {
+            throw new IOException("Malformed light in " + this.file);
+        }
+        return offset;
+    }
+
+    private void loadSections(NbtReader r, final byte[] nbt, int length, boolean loadLight) throws IOException {
+        final ArrayList<ChunkSection> found = new ArrayList<ChunkSection>(24);
+        this.sections = null;
+        NbtTagPaths paths;
+        if (hasLevelCompound(nbt, length)) {
+            paths = loadLight ? ANVIL_TAGS : ANVIL_BLOCK_TAGS;
+        }
+        else {
+            paths = loadLight ? ANVIL_TAGS_1_18 : ANVIL_BLOCK_TAGS_1_18;
+        }
+        r.accept(paths, new NbtVisitor() {
+            private ChunkSection section;
+            private int sectionY;
+
+            @Override
+            public void visitCompoundStart(int id) {
+                this.section = null;
+                this.sectionY = Integer.MIN_VALUE;
+            }
+
+            @Override
+            public void visitCompoundEnd(int id) throws IOException {
+                if (this.section != null) {
+                    if (this.sectionY == Integer.MIN_VALUE) {
+                        throw new IOException("Section without Y in " + Chunk.this.file);
                     }
-                    else if ("xPos".equals(item.getName())) {
-                        int inFileZ = ((NbtIntItem) item).getValue();
-                        if (inFileZ != this.z) {
-                            throw new IOException("in-file z not equal to in-filename z");
-                        }
+                    if (this.section.validate()) {
+                        found.add(this.section);
                     }
                 }
-                item = r.readNext();
             }
+
+            @Override
+            public void visitByte(int id, byte value) {
+                // the sections tags can come in any order, so the section is created when its Y is known
+                this.sectionY = value;
+                if (this.section != null) {
+                    this.section.setY(value);
+                }
+            }
+
+            @Override
+            public void visitString(int id, String value) {
+                this.getSection().addPaletteEntry(value);
+            }
+
+            @Override
+            public void visitByteArray(int id, ByteBuffer data, int offset, int length) throws IOException {
+                switch (id) {
+                    case TAG_SECTION_BLOCKS:
+                        this.getSection().setBlocks(offset, length);
+                        break;
+                    case TAG_SECTION_BLOCK_LIGHT:
+                        this.getSection().setBlockLight(offset, length);
+                        break;
+                    case TAG_SECTION_SKY_LIGHT:
+                        this.getSection().setSkyLight(offset, length);
+                        break;
+                }
+            }
+
+            @Override
+            public void visitLongArray(int id, ByteBuffer data, int offset, int length) {
+                this.getSection().setBlockStates(offset, length);
+            }
+
+            @Override
+            public void visitInt(int id, int value) throws IOException {
+                if (id == TAG_ANVIL_X_POS && value != Chunk.this.x) {
+                    throw new IOException("in-file x not equal to in-filename x");
+                }
+                else if (id == TAG_ANVIL_Z_POS && value != Chunk.this.z) {
+                    throw new IOException("in-file z not equal to in-filename z");
+                }
+            }
+
+            private ChunkSection getSection() {
+                if (this.section == null) {
+                    this.section = new ChunkSection(nbt, this.sectionY);
+                }
+                return this.section;
+            }
+        });
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (ChunkSection section : found) {
+            min = Math.min(min, section.getY());
+            max = Math.max(max, section.getY());
         }
-        finally {
-            r.close();
+        if (found.isEmpty()) {
+            min = 0;
+            max = -1;
+        }
+        this.minSection = min;
+        this.sections = new ChunkSection[max - min + 1];
+        int dataLength = 0;
+        for (ChunkSection section : found) {
+            this.sections[section.getY() - min] = section;
+            dataLength += section.getDataLength();
+        }
+        // empty sections are dropped, so only the arrays of the kept ones are copied
+        this.data = new byte[dataLength];
+        int position = 0;
+        for (ChunkSection section : found) {
+            position = section.relocate(this.data, position);
+        }
+    }
+
+    /**
+     * Tell whether an Anvil chunk keeps its tags in a Level compound, as before 1.18. Besides Level such a chunk
+     * only has DataVersion in its root compound, while a 1.18 chunk has compounds and lists of its own there, so
+     * only the tags up to the first compound, list or array are looked at.
+     *
+     * @param data   the uncompressed chunk
+     * @param length the length of the chunk in data
+     * @return true for a chunk from before 1.18
+     */
+    private static boolean hasLevelCompound(byte[] data, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        if (length < 3 || data[0] != NbtItem.TAG_COMPOUND) {
+            return false;
+        }
+        // the root compound's type and name
+        int position = 3 + (buffer.getShort(1) & 0xffff);
+        while (position + 3 <= length) {
+            int tagType = data[position];
+            int nameLength = buffer.getShort(position + 1) & 0xffff;
+            int payload = position + 3 + nameLength;
+            int payloadLength;
+            switch (tagType) {
+                case NbtItem.TAG_COMPOUND:
+                    return nameLength == LEVEL.length && payload <= length
+                            && Arrays.equals(LEVEL, Arrays.copyOfRange(data, position + 3, payload));
+                case NbtItem.TAG_BYTE:
+                    payloadLength = 1;
+                    break;
+                case NbtItem.TAG_SHORT:
+                    payloadLength = 2;
+                    break;
+                case NbtItem.TAG_INT:
+                case NbtItem.TAG_FLOAT:
+                    payloadLength = 4;
+                    break;
+                case NbtItem.TAG_LONG:
+                case NbtItem.TAG_DOUBLE:
+                    payloadLength = 8;
+                    break;
+                case NbtItem.TAG_STRING:
+                    if (payload + 2 > length) {
+                        return false;
+                    }
+                    payloadLength = 2 + (buffer.getShort(payload) & 0xffff);
+                    break;
+                default:
+                    return false;
+            }
+            position = payload + payloadLength;
+        }
+        return false;
+    }
+
+    /**
+     * Find the topmost non-air block of every column of an Anvil chunk, unpacking sections from the top only until
+     * every column has been found.
+     */
+    private void computeSectionHeights() {
+        this.heights = new short[16 * 16];
+        this.topBlocks = new byte[16 * 16];
+        Arrays.fill(this.heights, (short) (this.getMinY() - 1));
+        boolean[] done = new boolean[16 * 16];
+        int remaining = 16 * 16;
+        for (int s = this.sections.length - 1; s >= 0 && remaining > 0; s--) {
+            ChunkSection section = this.sections[s];
+            if (section == null) {
+                continue;
+            }
+            byte[] blocks = section.getBlocks();
+            int blocksOffset = section.getBlocksOffset();
+            int baseY = (s + this.minSection) * 16;
+            for (int column = 0; column < 16 * 16; column++) {
+                if (done[column]) {
+                    continue;
+                }
+                // columns are indexed x * 16 + z, blocks y * 256 + z * 16 + x
+                int offset = blocksOffset + (((column & 15) << 4) | (column >> 4));
+                for (int y = 15; y >= 0; y--) {
+                    byte b = blocks[offset + (y << 8)];
+                    if (b != 0) {
+                        this.heights[column] = (short) (baseY + y);
+                        this.topBlocks[column] = b;
+                        done[column] = true;
+                        remaining--;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the topmost non-air block of every column. The HeightMap tag in the file can't be used for this: it
+     * holds the lowest level that gets full sky light, so glass, torches, flowers etc. can be above it.
+     */
+    private void computeHeights() {
+        byte[] blocks = this.data;
+        this.heights = new short[16 * 16];
+        this.topBlocks = new byte[16 * 16];
+        for (int column = 0; column < 16 * 16; column++) {
+            // blocks are stored x, z, y so each column is 128 consecutive bytes
+            int base = this.blocksOffset + column * 128;
+            int y = 127;
+            while (y >= 0 && blocks[base + y] == 0) {
+                y--;
+            }
+            this.heights[column] = (short) y;
+            this.topBlocks[column] = y >= 0 ? blocks[base + y] : 0;
         }
     }
 
     public void unload() {
-        this.blockBytes = null;
-        this.blockLightBytes = null;
-        this.skyLightBytes = null;
+        this.data = null;
+        this.sections = null;
+        this.heights = null;
+        this.topBlocks = null;
+    }
+
+    /**
+     * Get the approximate number of bytes held by the loaded data.
+     *
+     * @return the size, 0 if not loaded
+     */
+    public int getLoadedSize() {
+        int size = arraySize(this.data) + arraySize(this.topBlocks)
+                + (this.heights == null ? 0 : this.heights.length * 2 + 16);
+        if (this.sections != null) {
+            size += this.sections.length * 4 + 16;
+            for (ChunkSection section : this.sections) {
+                if (section != null) {
+                    size += section.getLoadedSize();
+                }
+            }
+        }
+        return size;
+    }
+
+    static int arraySize(byte[] array) {
+        // plus the array header
+        return array == null ? 0 : array.length + 16;
+    }
+
+    /**
+     * @return the chunk's file, shared with other chunks for a chunk in a region
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the time the chunk was last saved, in ms
+     */
+    public long getModified() {
+        return this.region != null ? this.region.getTimestamp(this.x, this.z) : this.file.lastModified();
     }
 
-    private byte[] unpack(byte[] value) {
-        byte[] result = new byte[value.length * 2];
-        for (int i = 0; i < value.length; i++) {
-            result[i * 2] = (byte) (value[i] & 0xf);
-            result[i * 2 + 1] = (byte) ((value[i] >> 4) & 0xf);
+    /**
+     * @return the compressed size of the chunk
+     */
+    public long getStoredLength() {
+        return this.region != null ? this.region.getCompressedLength(this.x, this.z) : this.file.length();
+    }
+
+    /**
+     * Get a hash of the uncompressed chunk data, read from the trailer of the compressed data.
+     *
+     * @return the hash, or -1 if it cannot be read; loading the chunk will then fail and report why
+     */
+    public long getContentHash() {
+        if (this.region != null) {
+            return this.region.getContentHash(this.x, this.z);
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+            try {
+                if (raf.length() < 8) {
+                    return -1;
+                }
+                // gzip trailer: CRC-32 and size, both little endian
+                raf.seek(raf.length() - 8);
+                long crc = Integer.reverseBytes(raf.readInt()) & 0xffffffffL;
+                long size = Integer.reverseBytes(raf.readInt()) & 0xffffffffL;
+                return (crc << 32) | size;
+            }
+            finally {
+                raf.close();
+            }
+        }
+        catch (IOException e) {
+            return -1;
         }
-        return result;
     }
 
     public int getX() {
@@ -117,15 +559,86 @@ public final class Chunk {
         return z;
     }
 
+    /**
+     * @return the lowest y blocks can be at
+     */
+    public int getMinY() {
+        return this.sections != null ? this.minSection * 16 : 0;
+    }
+
+    /**
+     * @return the highest y blocks can be at; everything above is air with full sky light
+     */
+    public int getMaxY() {
+        return this.sections != null ? (this.minSection + this.sections.length) * 16 - 1 : 127;
+    }
+
+    /**
+     * Get a block. With an Anvil chunk this unpacks the section holding the block, if not done yet.
+     *
+     * @param x x within the chunk
+     * @param z z within the chunk
+     * @param y y, from {@link #getMinY()} to {@link #getMaxY()}
+     * @return the block id
+     */
     public byte getBlockAt(int x, int z, int y) {
-        return this.blockBytes[x * 128 * 16 + z * 128 + y];
+        if (this.sections != null) {
+            ChunkSection section = this.getSection(y);
+            return section != null ? section.getBlock(getSectionIndex(x, z, y)) : 0;
+        }
+        return this.data[this.blocksOffset + x * 128 * 16 + z * 128 + y];
+    }
+
+    /**
+     * Get the height of the topmost non-air block of a column.
+     *
+     * @param x x within the chunk
+     * @param z z within the chunk
+     * @return the y of the block, or {@link #getMinY()} - 1 if the column is empty.
+     */
+    public int getHeightAt(int x, int z) {
+        return this.heights[x * 16 + z];
+    }
+
+    /**
+     * Get the topmost non-air block of a column.
+     *
+     * @param x x within the chunk
+     * @param z z within the chunk
+     * @return the block id, or 0 if the column is empty.
+     */
+    public byte getTopBlockAt(int x, int z) {
+        return this.topBlocks[x * 16 + z];
     }
 
     public byte getBlockLightAt(int x, int z, int y) {
-        return this.blockLightBytes[x * 128 * 16 + z * 128 + y];
+        if (this.sections != null) {
+            ChunkSection section = this.getSection(y);
+            return section != null ? section.getBlockLight(getSectionIndex(x, z, y)) : 0;
+        }
+        return getNibble(this.data, this.blockLightOffset, x * 128 * 16 + z * 128 + y);
     }
 
     public byte getSkyLightAt(int x, int z, int y) {
-        return this.skyLightBytes[x * 128 * 16 + z * 128 + y];
+        if (this.sections != null) {
+            // sections that are not stored are all air, lit by the sky
+            ChunkSection section = this.getSection(y);
+            return section != null ? section.getSkyLight(getSectionIndex(x, z, y)) : 15;
+        }
+        return getNibble(this.data, this.skyLightOffset, x * 128 * 16 + z * 128 + y);
+    }
+
+    private ChunkSection getSection(int y) {
+        int s = (y >> 4) - this.minSection;
+        return s >= 0 && s < this.sections.length ? this.sections[s] : null;
+    }
+
+    private static int getSectionIndex(int x, int z, int y) {
+        return ((y & 15) << 8) | (z << 4) | x;
+    }
+
+    static byte getNibble(byte[] data, int offset, int index) {
+        // even indexes are in the low nibble
+        return (byte) ((data[offset + (index >> 1)] >> ((index & 1) << 2)) & 0xf);
     }
 }
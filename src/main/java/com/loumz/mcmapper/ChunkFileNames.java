@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+/**
+ * Chunk file names, c.&lt;x&gt;.&lt;z&gt;.dat with x and z in base 36, stored in the directory
+ * &lt;x mod 64&gt;/&lt;z mod 64&gt;, also in base 36; and region file names. Parsing reads the characters in place and
+ * building appends to a caller's StringBuilder, so neither allocates.
+ */
+public final class ChunkFileNames {
+    /**
+     * Returned by {@link #parse} for names that are not chunk file names; no chunk has these packed coordinates.
+     */
+    public static final long NOT_A_CHUNK = Long.MIN_VALUE;
+    private static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+    // 36^6 < 2^31 < 36^7
+    private static final int MAX_DIGITS = 7;
+
+    private ChunkFileNames() {
+    }
+
+    /**
+     * Parse a chunk file name.
+     *
+     * @param name the file name, without directories
+     * @return the coordinates packed as by {@link ChunkIndex#pack}, or {@link #NOT_A_CHUNK}
+     */
+    public static long parse(CharSequence name) {
+        int length = name.length();
+        if (length < 9 || name.charAt(0) != 'c' || name.charAt(1) != '.' || name.charAt(length - 4) != '.'
+                || name.charAt(length - 3) != 'd' || name.charAt(length - 2) != 'a' || name.charAt(length - 1) != 't') {
+            return NOT_A_CHUNK;
+        }
+        int dot = 2;
+        while (dot < length - 4 && name.charAt(dot) != '.') {
+            dot++;
+        }
+        if (dot >= length - 4) {
+            return NOT_A_CHUNK;
+        }
+        long x = parseBase36(name, 2, dot);
+        long z = parseBase36(name, dot + 1, length - 4);
+        if (x == NOT_A_CHUNK || z == NOT_A_CHUNK) {
+            return NOT_A_CHUNK;
+        }
+        return ChunkIndex.pack((int) x, (int) z);
+    }
+
+    /**
+     * Parse an optionally negative base 36 int with lower case digits.
+     *
+     * @param s     the characters
+     * @param start index of the first character
+     * @param end   index after the last character
+     * @return the number, or {@link #NOT_A_CHUNK} if the characters are not an int
+     */
+    public static long parseBase36(CharSequence s, int start, int end) {
+        return parseInt(s, start, end, 36, MAX_DIGITS);
+    }
+
+    /**
+     * Parse a region file name, r.&lt;x&gt;.&lt;z&gt;.&lt;extension&gt; with the region x and z in decimal.
+     *
+     * @param name      the file name, without directories
+     * @param extension the three letter extension, "mcr" for McRegion or "mca" for Anvil
+     * @return the region coordinates packed as by {@link ChunkIndex#pack}, or {@link #NOT_A_CHUNK}
+     */
+    public static long parseRegionName(CharSequence name, String extension) {
+        int length = name.length();
+        if (length < 9 || name.charAt(0) != 'r' || name.charAt(1) != '.' || name.charAt(length - 4) != '.'
+                || name.charAt(length - 3) != extension.charAt(0) || name.charAt(length - 2) != extension.charAt(1)
+                || name.charAt(length - 1) != extension.charAt(2)) {
+            return NOT_A_CHUNK;
+        }
+        int dot = 2;
+        while (dot < length - 4 && name.charAt(dot) != '.') {
+            dot++;
+        }
+        if (dot >= length - 4) {
+            return NOT_A_CHUNK;
+        }
+        long x = parseInt(name, 2, dot, 10, 10);
+        long z = parseInt(name, dot + 1, length - 4, 10, 10);
+        if (x == NOT_A_CHUNK || z == NOT_A_CHUNK) {
+            return NOT_A_CHUNK;
+        }
+        return ChunkIndex.pack((int) x, (int) z);
+    }
+
+    private static long parseInt(CharSequence s, int start, int end, int radix, int maxDigits) {
+        boolean negative = start < end && s.charAt(start) == '-';
+        if (negative) {
+            start++;
+        }
+        if (start == end || end - start > maxDigits) {
+            return NOT_A_CHUNK;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            }
+            else if (c >= 'a' && c <= 'z') {
+                digit = c - 'a' + 10;
+            }
+            else {
+                return NOT_A_CHUNK;
+            }
+            if (digit >= radix) {
+                return NOT_A_CHUNK;
+            }
+            value = value * radix + digit;
+        }
+        if (negative) {
+            value = -value;
+        }
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? NOT_A_CHUNK : value;
+    }
+
+    /**
+     * Append the path of a chunk file relative to the world directory.
+     *
+     * @param sb the builder to append to
+     * @param x  chunk x
+     * @param z  chunk z
+     * @return sb
+     */
+    public static StringBuilder appendPath(StringBuilder sb, int x, int z) {
+        appendBase36(sb, x & 63).append(java.io.File.separatorChar);
+        appendBase36(sb, z & 63).append(java.io.File.separatorChar);
+        return appendName(sb, x, z);
+    }
+
+    /**
+     * Append the name of a chunk file.
+     *
+     * @param sb the builder to append to
+     * @param x  chunk x
+     * @param z  chunk z
+     * @return sb
+     */
+    public static StringBuilder appendName(StringBuilder sb, int x, int z) {
+        sb.append("c.");
+        appendBase36(sb, x).append('.');
+        return appendBase36(sb, z).append(".dat");
+    }
+
+    /**
+     * Append an int in base 36 with lower case digits, like Integer.toString(n, 36).
+     *
+     * @param sb the builder to append to
+     * @param n  the number
+     * @return sb
+     */
+    public static StringBuilder appendBase36(StringBuilder sb, int n) {
+        long value = n;
+        if (value < 0) {
+            sb.append('-');
+            value = -value;
+        }
+        long div = 1;
+        while (div * 36 <= value) {
+            div *= 36;
+        }
+        for (; div > 0; div /= 36) {
+            sb.append(DIGITS[(int) (value / div)]);
+            value %= div;
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import java.awt.*;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The chunks of a world, kept in an index file next to level.dat so that the 64x64 directory tree need not be
+ * walked on every run.
+ * <p/>
+ * For every directory of the tree the index records its mtime, and for every chunk directory the sorted packed
+ * (x, z) coordinates of its chunk files. Adding or removing a file changes the mtime of its directory, so
+ * {@link #update} only stats the 4160 directories and lists the ones that changed. Directories modified within
+ * {@link #MTIME_SLACK} ms of a scan are listed again next time, as their mtime may not have ticked yet.
+ * <p/>
+ * Chunk coordinates are packed in a long, x in the high and z in the low 32 bits.
+ */
+public class ChunkIndex {
+    public static final String FILE_NAME = "mcmapper.index";
+    private static final int MAGIC = 0x4d434d49;
+    private static final int VERSION = 1;
+    private static final int DIRS = 64;
+    private static final long ABSENT = -1;
+    private static final long MTIME_SLACK = 2000;
+    private static final long[] NO_CHUNKS = new long[0];
+    private static final String[] DIR_NAMES = new String[DIRS];
+
+    static {
+        for (int i = 0; i < DIRS; i++) {
+            DIR_NAMES[i] = LevelUtil.to36(i);
+        }
+    }
+
+    private final File worldDir;
+    private final File indexFile;
+    private long topModified = ABSENT;
+    // mtime of first level directory x % 64, ABSENT if there is none
+    private final long[] firstModified = new long[DIRS];
+    // mtime and chunks of second level directory (x % 64) * 64 + z % 64, chunks null if there is none
+    private final long[] secondModified = new long[DIRS * DIRS];
+    private final long[][] secondChunks = new long[DIRS * DIRS][];
+    private Rectangle bounds;
+    private int chunkCount;
+    private boolean dirty;
+
+    /**
+     * Load the index of a world from its index file. A missing or unreadable index file gives an empty index.
+     *
+     * @param worldDir the world directory
+     */
+    public ChunkIndex(File worldDir) {
+        this(worldDir, new File(worldDir, FILE_NAME));
+    }
+
+    /**
+     * Load the index of a world.
+     *
+     * @param worldDir  the world directory
+     * @param indexFile the index file, or null to start empty and never save
+     */
+    public ChunkIndex(File worldDir, File indexFile) {
+        this.worldDir = worldDir;
+        this.indexFile = indexFile;
+        Arrays.fill(this.firstModified, ABSENT);
+        if (indexFile != null && indexFile.isFile()) {
+            try {
+                this.read();
+            }
+            catch (IOException e) {
+                this.clear();
+            }
+        }
+    }
+
+    /**
+     * Bring the index up to date with the directory tree, using one thread per processor.
+     */
+    public void update() {
+        this.update(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Bring the index up to date with the directory tree. Every directory is a fork/join task, so listing and
+     * stat'ing spreads over all threads however the chunks are spread over the tree.
+     *
+     * @param parallelism number of threads listing directories
+     */
+    public void update(int parallelism) {
+        final long scanStarted = System.currentTimeMillis();
+        long modified = this.worldDir.lastModified();
+        if (modified != this.topModified) {
+            boolean[] present = listDirs(this.worldDir);
+            for (int i = 0; i < DIRS; i++) {
+                if (!present[i]) {
+                    this.removeFirst(i);
+                }
+                else if (this.firstModified[i] == ABSENT) {
+                    // make sure it is listed
+                    this.firstModified[i] = 0;
+                }
+            }
+            this.topModified = trustedModified(modified, scanStarted);
+            this.dirty = true;
+        }
+
+        final List<FirstDirTask> tasks = new ArrayList<FirstDirTask>();
+        for (int i = 0; i < DIRS; i++) {
+            if (this.firstModified[i] != ABSENT) {
+                tasks.add(new FirstDirTask(i, scanStarted));
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        }
+        finally {
+            pool.shutdown();
+        }
+        for (FirstDirTask task : tasks) {
+            this.dirty |= task.getRawResult().booleanValue();
+        }
+        if (this.dirty || this.bounds == null) {
+            this.computeBounds();
+        }
+    }
+
+    /**
+     * Write the index file if the index changed since it was read. Does nothing without an index file.
+     *
+     * @throws IOException if the index cannot be written
+     */
+    public void save() throws IOException {
+        if (!this.dirty || this.indexFile == null) {
+            return;
+        }
+        File newFile = new File(this.indexFile.getPath() + ".new");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(this.topModified);
+            out.writeInt(this.chunkCount);
+            out.writeInt(this.bounds.x);
+            out.writeInt(this.bounds.y);
+            out.writeInt(this.bounds.width);
+            out.writeInt(this.bounds.height);
+            for (int i = 0; i < DIRS; i++) {
+                out.writeLong(this.firstModified[i]);
+            }
+            for (int i = 0; i < DIRS * DIRS; i++) {
+                long[] chunks = this.secondChunks[i];
+                if (chunks == null) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                out.writeInt(chunks.length);
+                out.writeLong(this.secondModified[i]);
+                for (long chunk : chunks) {
+                    out.writeLong(chunk);
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+        // atomically, so that a crash leaves either the old or the new index
+        Files.move(newFile.toPath(), this.indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        this.dirty = false;
+    }
+
+    /**
+     * Get the bounds of the chunks, from the smallest to the largest x and z, inclusive.
+     *
+     * @return the bounds, empty at the origin if there are no chunks
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(this.bounds);
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Get the packed coordinates of all chunks, grouped by directory and sorted within each directory.
+     *
+     * @return the coordinates
+     */
+    public long[] getChunks() {
+        long[] result = new long[this.chunkCount];
+        int n = 0;
+        for (long[] chunks : this.secondChunks) {
+            if (chunks != null) {
+                System.arraycopy(chunks, 0, result, n, chunks.length);
+                n += chunks.length;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check whether a chunk exists without touching the file system.
+     *
+     * @param x chunk x
+     * @param z chunk z
+     * @return true if the index has the chunk
+     */
+    public boolean contains(int x, int z) {
+        long[] chunks = this.secondChunks[(x & (DIRS - 1)) * DIRS + (z & (DIRS - 1))];
+        return chunks != null && Arrays.binarySearch(chunks, pack(x, z)) >= 0;
+    }
+
+    /**
+     * Get the file a chunk is stored in.
+     *
+     * @param worldDir the world directory
+     * @param x        chunk x
+     * @param z        chunk z
+     * @param scratch  builder for the path, cleared first
+     * @return the chunk file, which need not exist
+     */
+    public static File getChunkFile(File worldDir, int x, int z, StringBuilder scratch) {
+        scratch.setLength(0);
+        scratch.append(worldDir.getPath()).append(File.separatorChar);
+        return new File(ChunkFileNames.appendPath(scratch, x, z).toString());
+    }
+
+    public static long pack(int x, int z) {
+        return ((long) x << 32) | (z & 0xffffffffL);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Brings one first level directory up to date, forking a task per chunk directory. Only touches the entries of
+     * that directory.
+     */
+    private final class FirstDirTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final int first;
+        private final long scanStarted;
+
+        FirstDirTask(int first, long scanStarted) {
+            this.first = first;
+            this.scanStarted = scanStarted;
+        }
+
+        @Override
+        protected Boolean compute() {
+            File firstDir = new File(worldDir, DIR_NAMES[this.first]);
+            boolean changed = false;
+            long modified = firstDir.lastModified();
+            if (modified != firstModified[this.first]) {
+                boolean[] present = listDirs(firstDir);
+                for (int i = 0; i < DIRS; i++) {
+                    int second = this.first * DIRS + i;
+                    if (!present[i]) {
+                        secondChunks[second] = null;
+                    }
+                    else if (secondChunks[second] == null) {
+                        secondChunks[second] = NO_CHUNKS;
+                        // make sure it is listed
+                        secondModified[second] = 0;
+                    }
+                }
+                firstModified[this.first] = trustedModified(modified, this.scanStarted);
+                changed = true;
+            }
+            List<SecondDirTask> tasks = new ArrayList<SecondDirTask>();
+            for (int i = 0; i < DIRS; i++) {
+                int second = this.first * DIRS + i;
+                if (secondChunks[second] != null) {
+                    tasks.add(new SecondDirTask(new File(firstDir, DIR_NAMES[i]), second, this.scanStarted));
+                }
+            }
+            invokeAll(tasks);
+            for (SecondDirTask task : tasks) {
+                changed |= task.getRawResult().booleanValue();
+            }
+            return Boolean.valueOf(changed);
+        }
+    }
+
+    /**
+     * Lists one chunk directory again if it changed.
+     */
+    private final class SecondDirTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final File dir;
+        private final int second;
+        private final long scanStarted;
+
+        SecondDirTask(File dir, int second, long scanStarted) {
+            this.dir = dir;
+            this.second = second;
+            this.scanStarted = scanStarted;
+        }
+
+        @Override
+        protected Boolean compute() {
+            long modified = this.dir.lastModified();
+            if (modified == secondModified[this.second]) {
+                return Boolean.FALSE;
+            }
+            long[] chunks = new long[64];
+            int n = 0;
+            try {
+                DirectoryStream<Path> stream = Files.newDirectoryStream(this.dir.toPath());
+                try {
+                    for (Path path : stream) {
+                        long chunk = ChunkFileNames.parse(path.getFileName().toString());
+                        if (chunk == ChunkFileNames.NOT_A_CHUNK) {
+                            continue;
+                        }
+                        if (n == chunks.length) {
+                            chunks = Arrays.copyOf(chunks, 2 * n);
+                        }
+                        chunks[n++] = chunk;
+                    }
+                }
+                finally {
+                    stream.close();
+                }
+            }
+            catch (IOException e) {
+                // gone since its parent was listed
+                n = 0;
+            }
+            chunks = Arrays.copyOf(chunks, n);
+            Arrays.sort(chunks);
+            secondChunks[this.second] = chunks;
+            secondModified[this.second] = trustedModified(modified, this.scanStarted);
+            return Boolean.TRUE;
+        }
+    }
+
+    /**
+     * List the directories of the tree in a directory.
+     *
+     * @return present[i] is true if the directory for i exists
+     */
+    private static boolean[] listDirs(File dir) {
+        boolean[] present = new boolean[DIRS];
+        try {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath());
+            try {
+                for (Path path : stream) {
+                    int index = parseDirName(path.getFileName().toString());
+                    if (index >= 0 && Files.isDirectory(path)) {
+                        present[index] = true;
+                    }
+                }
+            }
+            finally {
+                stream.close();
+            }
+        }
+        catch (IOException e) {
+            // treat as empty
+        }
+        return present;
+    }
+
+    private void removeFirst(int first) {
+        this.firstModified[first] = ABSENT;
+        for (int i = 0; i < DIRS; i++) {
+            this.secondChunks[first * DIRS + i] = null;
+        }
+    }
+
+    private void computeBounds() {
+        int minX = Integer.MAX_VALUE;
+        int minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxZ = Integer.MIN_VALUE;
+        int count = 0;
+        for (long[] chunks : this.secondChunks) {
+            if (chunks == null) {
+                continue;
+            }
+            for (long chunk : chunks) {
+                int x = unpackX(chunk);
+                int z = unpackZ(chunk);
+                minX = Math.min(minX, x);
+                minZ = Math.min(minZ, z);
+                maxX = Math.max(maxX, x);
+                maxZ = Math.max(maxZ, z);
+            }
+            count += chunks.length;
+        }
+        this.chunkCount = count;
+        this.bounds = count == 0 ? new Rectangle() : new Rectangle(minX, minZ, maxX - minX + 1, maxZ - minZ + 1);
+    }
+
+    /**
+     * Read the index file with a single read. Every count is checked against the data, so that a damaged file
+     * throws IOException rather than allocating whatever it says.
+     */
+    private void read() throws IOException {
+        byte[] data;
+        RandomAccessFile raf = new RandomAccessFile(this.indexFile, "r");
+        try {
+            if (raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("Not a chunk index: " + this.indexFile);
+            }
+            data = new byte[(int) raf.length()];
+            raf.readFully(data);
+        }
+        finally {
+            raf.close();
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a chunk index: " + this.indexFile);
+        }
+        this.topModified = in.readLong();
+        this.chunkCount = in.readInt();
+        this.bounds = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        for (int i = 0; i < DIRS; i++) {
+            this.firstModified[i] = in.readLong();
+        }
+        int count = 0;
+        for (int i = 0; i < DIRS * DIRS; i++) {
+            int n = in.readInt();
+            if (n < 0) {
+                continue;
+            }
+            this.secondModified[i] = in.readLong();
+            if (n > in.available() / 8) {
+                throw new IOException("Truncated chunk index: " + this.indexFile);
+            }
+            long[] chunks = new long[n];
+            for (int j = 0; j < n; j++) {
+                chunks[j] = in.readLong();
+            }
+            this.secondChunks[i] = chunks;
+            count += n;
+        }
+        if (count != this.chunkCount || in.available() != 0) {
+            throw new IOException("Corrupt chunk index: " + this.indexFile);
+        }
+    }
+
+    private void clear() {
+        this.topModified = ABSENT;
+        Arrays.fill(this.firstModified, ABSENT);
+        Arrays.fill(this.secondChunks, null);
+        this.bounds = null;
+        this.chunkCount = 0;
+    }
+
+    /**
+     * Get the mtime to record for a directory; 0, which never matches, if it may still change within the same tick.
+     */
+    private static long trustedModified(long modified, long scanStarted) {
+        return modified > scanStarted - MTIME_SLACK ? 0 : modified;
+    }
+
+    /**
+     * Parse a directory name of the tree, the base 36 x or z modulo 64.
+     *
+     * @return the number, or -1 if it is not a directory name of the tree
+     */
+    private static int parseDirName(String name) {
+        if (name.length() == 0 || name.length() > 2 || name.charAt(0) == '-') {
+            return -1;
+        }
+        long value = ChunkFileNames.parseBase36(name, 0, name.length());
+        return value >= 0 && value < DIRS ? (int) value : -1;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A 16x16x16 section of an Anvil chunk. Blocks and light are stored y, z, x, so the index of a block is
+ * y * 256 + z * 16 + x. Sections from before 1.13 hold block ids directly; later ones hold a palette and
+ * indexes into it packed into longs, which are only unpacked the first time a block of the section is needed.
+ * <p/>
+ * Block ids, light and packed indexes are referenced by their offset in the chunk data. While the chunk is parsed
+ * that is the decompressed NBT; {@link #relocate} then copies them into the chunk's own array.
+ */
+final class ChunkSection {
+    static final int BLOCKS = 16 * 16 * 16;
+
+    private byte[] data;
+    private int y;
+    // block ids at blocksOffset; for a section with a palette null until unpacked into an array of its own
+    private volatile byte[] blocks;
+    private int blocksOffset;
+    private byte[] palette;
+    private int paletteSize;
+    private int blockStatesOffset = -1;
+    private int blockStatesLength;
+    private int skyLightOffset = -1;
+    private int blockLightOffset = -1;
+
+    /**
+     * @param data the chunk data the offsets passed to the setters refer to
+     * @param y    the section y, may still be changed with {@link #setY(int)}
+     */
+    ChunkSection(byte[] data, int y) {
+        this.data = data;
+        this.y = y;
+    }
+
+    /**
+     * @return the section y, block y / 16
+     */
+    int getY() {
+        return this.y;
+    }
+
+    void setY(int y) {
+        this.y = y;
+    }
+
+    void setBlocks(int offset, int length) throws IOException {
+        if (length != BLOCKS) {
+            throw new IOException("Malformed blocks in section " + this.y);
+        }
+        this.blocks = this.data;
+        this.blocksOffset = offset;
+    }
+
+    void addPaletteEntry(String name) {
+        if (this.palette == null) {
+            this.palette = new byte[16];
+        }
+        else if (this.paletteSize == this.palette.length) {
+            this.palette = Arrays.copyOf(this.palette, this.paletteSize * 2);
+        }
+        this.palette[this.paletteSize++] = LegacyBlockIds.get(name);
+    }
+
+    void setBlockStates(int offset, int length) {
+        this.blockStatesOffset = offset;
+        this.blockStatesLength = length;
+    }
+
+    void setSkyLight(int offset, int length) throws IOException {
+        this.skyLightOffset = checkLight(offset, length);
+    }
+
+    void setBlockLight(int offset, int length) throws IOException {
+        this.blockLightOffset = checkLight(offset, length);
+    }
+
+    private int checkLight(int offset, int length) throws IOException {
+        if (length != BLOCKS / 2) {
+            throw new IOException("Malformed light in section " + this.y);
+        }
+        return offset;
+    }
+
+    /**
+     * Check the block data read from the file, so that unpacking it later cannot fail.
+     *
+     * @return false if the section has no blocks other than air and need not be kept
+     * @throws IOException if the block data is malformed
+     */
+    boolean validate() throws IOException {
+        if (this.blocks != null) {
+            for (int i = 0; i < BLOCKS; i++) {
+                if (this.data[this.blocksOffset + i] != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (this.paletteSize == 0) {
+            return false;
+        }
+        if (this.blockStatesOffset < 0) {
+            // a single entry palette needs no indexes
+            if (this.paletteSize != 1) {
+                throw new IOException("Missing block states in section " + this.y);
+            }
+        }
+        else {
+            int bits = getBits(this.paletteSize);
+            int perLong = 64 / bits;
+            int length = this.blockStatesLength;
+            if (length != (BLOCKS + perLong - 1) / perLong && length != BLOCKS * bits / 64) {
+                throw new IOException("Malformed block states in section " + this.y);
+            }
+        }
+        for (int i = 0; i < this.paletteSize; i++) {
+            if (this.palette[i] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of bytes of chunk data the section refers to
+     */
+    int getDataLength() {
+        int length = this.blocks == this.data ? BLOCKS : 0;
+        if (this.blockStatesOffset >= 0) {
+            length += this.blockStatesLength * 8;
+        }
+        if (this.skyLightOffset >= 0) {
+            length += BLOCKS / 2;
+        }
+        if (this.blockLightOffset >= 0) {
+            length += BLOCKS / 2;
+        }
+        return length;
+    }
+
+    /**
+     * Copy the chunk data the section refers to into another array and refer to it there from now on. Must be called
+     * before the section is shared with other threads.
+     *
+     * @param target   the array to copy to
+     * @param position the index in target to copy to
+     * @return the index in target after the copied data, position + {@link #getDataLength()}
+     */
+    int relocate(byte[] target, int position) {
+        if (this.blocks == this.data) {
+            this.blocksOffset = copy(this.blocksOffset, BLOCKS, target, position);
+            this.blocks = target;
+            position += BLOCKS;
+        }
+        if (this.blockStatesOffset >= 0) {
+            this.blockStatesOffset = copy(this.blockStatesOffset, this.blockStatesLength * 8, target, position);
+            position += this.blockStatesLength * 8;
+        }
+        if (this.skyLightOffset >= 0) {
+            this.skyLightOffset = copy(this.skyLightOffset, BLOCKS / 2, target, position);
+            position += BLOCKS / 2;
+        }
+        if (this.blockLightOffset >= 0) {
+            this.blockLightOffset = copy(this.blockLightOffset, BLOCKS / 2, target, position);
+            position += BLOCKS / 2;
+        }
+        this.data = target;
+        return position;
+    }
+
+    private int copy(int offset, int length, byte[] target, int position) {
+        System.arraycopy(this.data, offset, target, position, length);
+        return position;
+    }
+
+    /**
+     * Get a block, unpacking the section if needed.
+     *
+     * @param index the block index in the section
+     * @return the block id
+     */
+    byte getBlock(int index) {
+        byte[] b = this.blocks;
+        if (b == null) {
+            b = this.unpackOnce();
+        }
+        return b[this.blocksOffset + index];
+    }
+
+    /**
+     * Get the block ids of the section, unpacking them if needed.
+     *
+     * @return the array holding the ids from {@link #getBlocksOffset()} on
+     */
+    byte[] getBlocks() {
+        byte[] b = this.blocks;
+        return b != null ? b : this.unpackOnce();
+    }
+
+    int getBlocksOffset() {
+        return this.blocksOffset;
+    }
+
+    private synchronized byte[] unpackOnce() {
+        if (this.blocks == null) {
+            this.blocks = this.unpack();
+        }
+        return this.blocks;
+    }
+
+    /**
+     * @return the sky light, full if the file has none for this section
+     */
+    byte getSkyLight(int index) {
+        return this.skyLightOffset >= 0 ? Chunk.getNibble(this.data, this.skyLightOffset, index) : 15;
+    }
+
+    byte getBlockLight(int index) {
+        return this.blockLightOffset >= 0 ? Chunk.getNibble(this.data, this.blockLightOffset, index) : 0;
+    }
+
+    /**
+     * @return the approximate number of bytes held by the section besides the chunk data
+     */
+    synchronized int getLoadedSize() {
+        int size = 64 + Chunk.arraySize(this.palette);
+        return this.blocks != null && this.blocks != this.data ? size + Chunk.arraySize(this.blocks) : size;
+    }
+
+    private byte[] unpack() {
+        byte[] result = new byte[BLOCKS];
+        byte[] ids = this.palette;
+        int size = this.paletteSize;
+        if (this.blockStatesOffset < 0) {
+            Arrays.fill(result, ids[0]);
+            return result;
+        }
+        ByteBuffer states = ByteBuffer.wrap(this.data);
+        int offset = this.blockStatesOffset;
+        int length = this.blockStatesLength;
+        int bits = getBits(size);
+        long mask = (1L << bits) - 1;
+        int perLong = 64 / bits;
+        if (length == (BLOCKS + perLong - 1) / perLong) {
+            // 1.16 and later: indexes do not cross longs, leftover high bits are unused
+            int i = 0;
+            for (int l = 0; l < length && i < BLOCKS; l++) {
+                long value = states.getLong(offset + l * 8);
+                for (int j = 0; j < perLong && i < BLOCKS; j++) {
+                    int index = (int) (value & mask);
+                    result[i++] = index < size ? ids[index] : 0;
+                    value >>>= bits;
+                }
+            }
+        }
+        else {
+            // 1.13 to 1.15: indexes are packed back to back and may cross longs
+            for (int i = 0; i < BLOCKS; i++) {
+                long bit = (long) i * bits;
+                int l = (int) (bit >> 6);
+                int shift = (int) (bit & 63);
+                long value = states.getLong(offset + l * 8) >>> shift;
+                if (shift + bits > 64) {
+                    value |= states.getLong(offset + l * 8 + 8) << (64 - shift);
+                }
+                int index = (int) (value & mask);
+                result[i] = index < size ? ids[index] : 0;
+            }
+        }
+        return result;
+    }
+
+    private static int getBits(int paletteSize) {
+        return Math.max(4, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+/**
+ * Headless entry point. Renders one world without opening any windows and reports the result through the
+ * process exit status, so renders can be scripted.
+ */
+public class CommandLine {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_RENDER_FAILED = 1;
+    public static final int EXIT_USAGE = 2;
+    // the map was written, the --stats file was not
+    public static final int EXIT_STATS_FAILED = 3;
+
+    private static final String USAGE =
+            "Usage: mcmapper [options] <world directory or level.dat>\n" +
+            "Options:\n" +
+            "  -o, --orientation <NESW|ESWN|SWNE|WNES|SENW|WSEN|NWSE|ENWS>  map orientation (default NESW)\n" +
+            "  -c, --coloring <plain|cartograph>                           coloring mode (default plain)\n" +
+            "  -f, --output <file>                                         output image (default <world>/level.png)\n" +
+            "  -t, --threads <n>                                           number of render threads\n" +
+            "  -q, --queue-size <n>                                        number of chunks in flight\n" +
+            "  -s, --scan-parallelism <n>                                  number of directory scan threads\n" +
+            "      --streaming                                             encode the image while rendering\n" +
+            "      --indexed                                               write an 8 bit palette image (plain\n" +
+            "                                                              coloring only)\n" +
+            "      --incremental                                           only render chunks changed since last run\n" +
+            "      --no-index                                              walk the whole world, ignoring mcmapper.index\n" +
+            "      --tiles                                                 write a z/x/y.png tile pyramid to the\n" +
+            "                                                              output directory (default <world>/tiles)\n" +
+            "  -z, --compression <0-9>                                     PNG deflate level, 0 fastest (default 6)\n" +
+            "      --stats <file>                                          write per-stage timings of the run to a\n" +
+            "                                                              file, as name=value lines\n" +
+            "  -h, --help                                                  show this help";
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.err));
+    }
+
+    /**
+     * Parse the arguments and render the world they describe.
+     *
+     * @param args command line arguments
+     * @param err  stream for error messages
+     * @return the exit status
+     */
+    public static int run(String[] args, PrintStream err) {
+        MapOrientation orientation = MapOrientation.NESW;
+        String coloring = "plain";
+        File outputFile = null;
+        int threads = -1;
+        int queueSize = -1;
+        int scanParallelism = -1;
+        OutputFormat outputFormat = OutputFormat.IMAGE;
+        boolean incremental = false;
+        boolean chunkIndex = true;
+        int compressionLevel = -1;
+        File statsFile = null;
+        File world = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("-h".equals(arg) || "--help".equals(arg)) {
+                    err.println(USAGE);
+                    return EXIT_OK;
+                }
+                else if ("-o".equals(arg) || "--orientation".equals(arg)) {
+                    orientation = MapOrientation.valueOf(getValue(args, ++i, arg).toUpperCase());
+                }
+                else if ("-c".equals(arg) || "--coloring".equals(arg)) {
+                    coloring = getValue(args, ++i, arg).toLowerCase();
+                }
+                else if ("-f".equals(arg) || "--output".equals(arg)) {
+                    outputFile = new File(getValue(args, ++i, arg));
+                }
+                else if ("-t".equals(arg) || "--threads".equals(arg)) {
+                    threads = getPositiveValue(args, ++i, arg);
+                }
+                else if ("-q".equals(arg) || "--queue-size".equals(arg)) {
+                    queueSize = getPositiveValue(args, ++i, arg);
+                }
+                else if ("-s".equals(arg) || "--scan-parallelism".equals(arg)) {
+                    scanParallelism = getPositiveValue(args, ++i, arg);
+                }
+                else if ("--streaming".equals(arg)) {
+                    outputFormat = OutputFormat.STREAMING_PNG;
+                }
+                else if ("--indexed".equals(arg)) {
+                    outputFormat = OutputFormat.INDEXED_PNG;
+                }
+                else if ("--incremental".equals(arg)) {
+                    incremental = true;
+                }
+                else if ("--no-index".equals(arg)) {
+                    chunkIndex = false;
+                }
+                else if ("--tiles".equals(arg)) {
+                    outputFormat = OutputFormat.TILES;
+                }
+                else if ("-z".equals(arg) || "--compression".equals(arg)) {
+                    compressionLevel = Integer.parseInt(getValue(args, ++i, arg));
+                    if (compressionLevel < 0 || compressionLevel > 9) {
+                        throw new IllegalArgumentException("Value for " + arg + " must be 0 to 9");
+                    }
+                }
+                else if ("--stats".equals(arg)) {
+                    statsFile = new File(getValue(args, ++i, arg));
+                }
+                else if (arg.startsWith("-")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+                else if (world == null) {
+                    world = new File(arg);
+                }
+                else {
+                    throw new IllegalArgumentException("Only one world can be rendered per run");
+                }
+            }
+            if (world == null) {
+                throw new IllegalArgumentException("No world given");
+            }
+        }
+        catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        File levelFile = world.isDirectory() ? new File(world, "level.dat") : world;
+        if (!levelFile.isFile()) {
+            err.println("Cannot find " + levelFile.getPath());
+            return EXIT_USAGE;
+        }
+        levelFile = levelFile.getAbsoluteFile();
+
+        DrawMapAction action;
+        if ("plain".equals(coloring)) {
+            action = new DrawMapAction(levelFile, null, orientation);
+        }
+        else if ("cartograph".equals(coloring)) {
+            if (outputFormat == OutputFormat.INDEXED_PNG) {
+                err.println("Cartograph coloring has too many colors for --indexed");
+                err.println(USAGE);
+                return EXIT_USAGE;
+            }
+            action = new HeightCuedDrawMapAction(levelFile, null, orientation);
+        }
+        else {
+            err.println("Unknown coloring " + coloring);
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        if (outputFile != null) {
+            action.setOutputFile(outputFile);
+        }
+        else if (outputFormat == OutputFormat.TILES) {
+            action.setOutputFile(new File(levelFile.getParentFile(), "tiles"));
+        }
+        if (threads > 0) {
+            action.setThreadCount(threads);
+        }
+        if (queueSize > 0) {
+            action.setQueueSize(queueSize);
+        }
+        if (scanParallelism > 0) {
+            action.setScanParallelism(scanParallelism);
+        }
+        if (compressionLevel >= 0) {
+            action.setCompressionLevel(compressionLevel);
+        }
+        action.setOutputFormat(outputFormat);
+        action.setIncremental(incremental);
+        action.setChunkIndexEnabled(chunkIndex);
+
+        action.run();
+        boolean statsWritten = true;
+        if (statsFile != null) {
+            try {
+                writeStats(action.getStats(), statsFile);
+            }
+            catch (IOException e) {
+                err.println("Cannot write " + statsFile.getPath() + ": " + e);
+                statsWritten = false;
+            }
+        }
+        if (action.getFailure() != null) {
+            err.println("Rendering " + world.getPath() + " failed: " + action.getFailure());
+            return EXIT_RENDER_FAILED;
+        }
+        return statsWritten ? EXIT_OK : EXIT_STATS_FAILED;
+    }
+
+    private static void writeStats(RenderStats stats, File file) throws IOException {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            stats.write(out);
+            if (out.checkError()) {
+                throw new IOException("Write failed");
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static String getValue(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[i];
+    }
+
+    private static int getPositiveValue(String[] args, int i, String option) {
+        int value = Integer.parseInt(getValue(args, i, option));
+        if (value < 1) {
+            throw new IllegalArgumentException("Value for " + option + " must be at least 1");
+        }
+        return value;
+    }
+}
@@ -22,15 +22,12 @@
 
 package com.loumz.mcmapper;
 
-import org.apache.sanselan.ImageFormat;
-import org.apache.sanselan.Sanselan;
+import com.loumz.mcmapper.nbt.DecompressionContext;
+import com.loumz.mcmapper.png.ParallelPngEncoder;
 
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -38,41 +35,204 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
 
 public class DrawMapAction extends AbstractDrawMapAction implements Comparator<Chunk> {
+    protected static final int FOOTER_HEIGHT = 150;
+
     protected ArrayList<Chunk> chunks;
     protected Rectangle bounds;
     protected int chunkCursor;
-    protected BufferedImage compositeCanvas;
+    protected MapOutput output;
     protected MapOrientation orientation;
+    protected File outputFile;
+    protected int threadCount = Runtime.getRuntime().availableProcessors();
+    protected int queueSize = 4 * Runtime.getRuntime().availableProcessors();
+    protected int scanParallelism = Runtime.getRuntime().availableProcessors();
+    protected OutputFormat outputFormat = OutputFormat.IMAGE;
+    protected int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    protected boolean incremental;
+    protected boolean chunkIndexEnabled = true;
+    protected RenderCache renderCache;
 
     public DrawMapAction(File baseFile, PickerFrame frame, MapOrientation orientation) {
         super(frame, baseFile);
         this.orientation = orientation;
+        this.outputFile = new File(baseFile.getParentFile(), "level.png");
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public void setOutputFile(File outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Set the number of threads used to scan and render chunks. Defaults to the number of processors.
+     *
+     * @param threadCount the number of threads
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Set the number of chunks that may be rendering or waiting to be composited at one time. Defaults to four
+     * per processor, so the render threads always have work queued up.
+     *
+     * @param queueSize the maximum number of chunks in flight
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    /**
+     * Set the number of threads listing the world's directories. Defaults to the number of processors.
+     *
+     * @param scanParallelism the number of directory scan threads
+     */
+    public void setScanParallelism(int scanParallelism) {
+        this.scanParallelism = scanParallelism;
+    }
+
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Set how the map is written. {@link OutputFormat#STREAMING_PNG} and {@link OutputFormat#TILES} encode while
+     * rendering and need far less memory for large worlds than the default {@link OutputFormat#IMAGE}. For tiles the
+     * output file is the directory the tile pyramid is written to. {@link OutputFormat#INDEXED_PNG} needs a quarter
+     * of the memory of an image and writes a smaller file, but fails if the map has more than 256 colors.
+     *
+     * @param outputFormat the output format
+     */
+    public void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Set the deflate level of the PNG output, trading speed for size. Defaults to Deflater.DEFAULT_COMPRESSION.
+     *
+     * @param compressionLevel 0 (store) to 9 (smallest), or Deflater.DEFAULT_COMPRESSION
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Set whether tiles are kept in a cache file in the world directory, so the next run only renders the chunks
+     * that changed. Defaults to false.
+     *
+     * @param incremental true to use the cache
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isChunkIndexEnabled() {
+        return chunkIndexEnabled;
+    }
+
+    /**
+     * Set whether the chunk list is kept in an index file in the world directory, so the next run only lists the
+     * directories that changed. Without it the whole tree is walked. Defaults to true.
+     *
+     * @param chunkIndexEnabled true to use the index file
+     */
+    public void setChunkIndexEnabled(boolean chunkIndexEnabled) {
+        this.chunkIndexEnabled = chunkIndexEnabled;
+    }
+
+    /**
+     * Get the name of the coloring mode, part of the name of the tile cache.
+     *
+     * @return the coloring name
+     */
+    protected String getColoringName() {
+        return "plain";
     }
 
     @Override
     protected ExecutorService createExecutor() {
-        return Executors.newFixedThreadPool(3);
+        // each run gets a new pool; release the threads' Inflaters as the pool shuts down
+        return Executors.newFixedThreadPool(this.threadCount, new ThreadFactory() {
+            private final ThreadFactory threads = Executors.defaultThreadFactory();
+
+            public Thread newThread(final Runnable r) {
+                return this.threads.newThread(new Runnable() {
+                    public void run() {
+                        try {
+                            r.run();
+                        }
+                        finally {
+                            DecompressionContext.release();
+                        }
+                    }
+                });
+            }
+        });
     }
 
     @Override
     protected void writeAndDisplayImage() throws Exception {
-        Graphics2D g2 = this.compositeCanvas.createGraphics();
+        this.output.finish(this.outputFormat == OutputFormat.TILES ? null : createFooter(16 * getImageTilesWide()));
+        if (this.renderCache != null) {
+            this.renderCache.commit();
+            // the counts are in the render stats as well
+            setStatus("OK - " + this.renderCache.getHits() + " tiles unchanged, " + this.renderCache.getMisses()
+                    + " rendered");
+        }
+        else {
+            setStatus("OK");
+        }
+        // only pop up a viewer when run from the picker
+        if (this.frame != null && Desktop.isDesktopSupported()) {
+            try {
+                Desktop.getDesktop().open(outputFile);
+            }
+            catch (IOException e) {
+                setStatus("OK - Please open " + outputFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Draws the footer put below the map.
+     *
+     * @param width width of the map
+     * @return the footer image
+     */
+    protected BufferedImage createFooter(int width) {
+        BufferedImage footer = new BufferedImage(width, FOOTER_HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2 = footer.createGraphics();
         g2.setPaint(Color.white);
-        Rectangle rect = new Rectangle(0, this.compositeCanvas.getHeight() - 150, this.compositeCanvas.getWidth(), 150);
-        g2.fill(rect);
-        g2.clip(rect);
-        AffineTransform at = g2.getTransform();
-        g2.translate(rect.x, rect.y);
+        g2.fillRect(0, 0, width, FOOTER_HEIGHT);
         Font mono = new Font(Font.DIALOG, Font.BOLD, 12);
         g2.setFont(mono);
         g2.setPaint(Color.black);
@@ -81,146 +241,182 @@ public class DrawMapAction extends AbstractDrawMapAction implements Comparator<C
         String worldDirName = this.baseFile.getParentFile().getName();
         g2.drawString(String.format("MCMapper - %s - finished %s", worldDirName, d.format(dt)), 20, 20);
         g2.drawString("Orientation (up/right/down/left): " + this.orientation.toString(), 20, 60);
-        g2.setTransform(at);
         g2.dispose();
-        File outputFile = new File(this.baseFile.getParentFile(), "level.png");
-        Sanselan.writeImage(this.compositeCanvas, outputFile, ImageFormat.IMAGE_FORMAT_PNG, null);
-        setStatus("OK");
-        if (Desktop.isDesktopSupported()) {
-            try {
-                Desktop.getDesktop().open(outputFile);
-            }
-            catch (IOException e) {
-                setStatus("OK - Please open " + outputFile.getAbsolutePath());
-            }
-        }
+        return footer;
     }
 
     /**
-     * Creates canvas used for compositing the chunk images.
+     * Creates the output the chunk tiles are composited on.
      */
     @Override
-    protected void createCompositeCanvas() {
-        this.compositeCanvas = new BufferedImage(
-                16 * (this.orientation.isMinecraftXImageX() ? this.bounds.width : this.bounds.height),
-                16 * (this.orientation.isMinecraftXImageX() ? this.bounds.height : this.bounds.width) + 150, 
-                BufferedImage.TYPE_INT_ARGB_PRE);
+    protected void createCompositeCanvas() throws IOException {
+        if (this.incremental) {
+            String name = "mcmapper-" + getColoringName() + "-" + this.orientation + ".cache";
+            this.renderCache = new RenderCache(new File(this.baseFile.getParentFile(), name), getColoringName(),
+                    this.orientation);
+        }
+        int tilesWide = getImageTilesWide();
+        int tilesHigh = this.orientation.isMinecraftXImageX() ? this.bounds.height : this.bounds.width;
+        if (this.outputFormat == OutputFormat.IMAGE) {
+            this.output = new ImageMapOutput(this.outputFile, tilesWide, tilesHigh, FOOTER_HEIGHT,
+                    new ParallelPngEncoder(this.executor, this.threadCount, this.compressionLevel));
+            return;
+        }
+        if (this.outputFormat == OutputFormat.INDEXED_PNG) {
+            this.output = new IndexedImageMapOutput(this.outputFile, tilesWide, tilesHigh, FOOTER_HEIGHT,
+                    new ParallelPngEncoder(this.executor, this.threadCount, this.compressionLevel));
+            return;
+        }
+        int[] tilesPerRow = new int[tilesHigh];
+        for (Chunk chunk : this.chunks) {
+            tilesPerRow[getTileLocation(chunk).y]++;
+        }
+        if (this.outputFormat == OutputFormat.TILES) {
+            this.output = new TilePyramidMapOutput(this.outputFile, tilesWide, tilesPerRow, this.compressionLevel);
+        }
+        else {
+            this.output = new StreamingPngMapOutput(this.outputFile, tilesWide, tilesPerRow, FOOTER_HEIGHT,
+                    this.compressionLevel);
+        }
+    }
+
+    @Override
+    protected void disposeCompositeCanvas() {
+        if (this.renderCache != null) {
+            this.renderCache.close();
+            this.renderCache = null;
+        }
+        if (this.output != null) {
+            this.output.close();
+            this.output = null;
+        }
+    }
+
+    /**
+     * @return the width of the map in tiles
+     */
+    protected int getImageTilesWide() {
+        return this.orientation.isMinecraftXImageX() ? this.bounds.width : this.bounds.height;
     }
 
     /**
-     * Creates callable object that renders the chunk into the buffered image.
+     * Renders the chunk with each column colored by its topmost block.
      *
-     * @param chunk         the chunk to render
-     * @param bufferedImage the buffered image to render to
-     * @return the callable
+     * @param chunk the chunk to render
+     * @param tile  the tile to render to
+     * @throws Exception if the chunk cannot be loaded
      */
     @Override
-    protected Callable<Object> createCallable(final Chunk chunk, final BufferedImage bufferedImage) {
-        return new Callable<Object>() {
-            public Object call() throws Exception {
-                chunk.load();
-                try {
-                    WritableRaster rs = bufferedImage.getRaster();
-                    rs.setPixels(0, 0, 16, 16, new int[16 * 16 * 4]);
-                    int[] rgbValues = new int[4];
-                    for (int x = 0; x < 16; x++) {
-                        for (int z = 0; z < 16; z++) {
-                            for (int y = 127; y >= 0; y--) {
-                                byte b = chunk.getBlockAt(x, z, y);
-                                if (b != 0) {
-                                    LevelUtil.getRgbaValues(b, rgbValues);
-                                    int imageX = orientation.isMinecraftXImageX() ? x : z;
-                                    int imageY = orientation.isMinecraftXImageX() ? z : x;
-                                    if (!orientation.isRightPositive()) {
-                                        imageX = 15 - imageX;
-                                    }
-                                    if (!orientation.isDownPositive()) {
-                                        imageY = 15 - imageY;
-                                    }
-                                    rs.setPixel(imageX, imageY, rgbValues);
-                                    break;
-                                }
-                            }
-                        }
-                    }
-
+    protected void renderChunk(Chunk chunk, int[] tile) throws Exception {
+        // plain coloring ignores light
+        chunk.load(false);
+        try {
+            BlockPalette palette = LevelUtil.getPalette();
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    byte b = chunk.getTopBlockAt(x, z);
+                    tile[getPixelOffset(x, z, 16)] = b == 0 ? 0 : palette.getColor(b);
                 }
-                finally {
-                    chunk.unload();
-                }
-                return null;
             }
-        };
+        }
+        finally {
+            chunk.unload();
+        }
     }
 
     /**
-     * Creates image used for one chunk.
+     * Writes the tile to the output.
      *
-     * @return BufferedImage
+     * @param chunk the chunk that was rendered
+     * @param tile  the rendered tile
+     * @throws IOException if the output cannot be written
      */
     @Override
-    protected BufferedImage createBufferedImage() {
-        return new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB_PRE);
+    protected void compositeTile(Chunk chunk, int[] tile) throws IOException {
+        Point location = getTileLocation(chunk);
+        this.output.writeTile(location.x, location.y, tile);
     }
 
+    @Override
+    protected boolean loadCachedTile(Chunk chunk, int[] tile) {
+        return this.renderCache != null && this.renderCache.lookup(chunk, tile);
+    }
 
-    public int compare(Chunk o1, Chunk o2) {
-        // sort by image-y, image-x
-        int dx = o1.getX() - o2.getX();
-        int dz = o1.getZ() - o2.getZ();
+    @Override
+    protected void tileCompleted(Chunk chunk, int[] tile, boolean ok) throws IOException {
+        if (this.renderCache != null) {
+            this.renderCache.store(chunk, ok ? tile : null);
+        }
+    }
 
-        int dimgx = 0;
-        int dimgy = 0;
+    /**
+     * Get the offset of a block column's pixel from the top left pixel of its chunk's tile.
+     *
+     * @param x        x within the chunk
+     * @param z        z within the chunk
+     * @param scanline width of the image
+     * @return the pixel offset
+     */
+    protected int getPixelOffset(int x, int z, int scanline) {
+        int imageX = orientation.isMinecraftXImageX() ? x : z;
+        int imageY = orientation.isMinecraftXImageX() ? z : x;
+        if (!orientation.isRightPositive()) {
+            imageX = 15 - imageX;
+        }
+        if (!orientation.isDownPositive()) {
+            imageY = 15 - imageY;
+        }
+        return imageY * scanline + imageX;
+    }
+
+    /**
+     * Get the column and row of a chunk's tile in the map.
+     *
+     * @param chunk the chunk
+     * @return the tile position
+     */
+    protected Point getTileLocation(Chunk chunk) {
+        int absX = -this.bounds.x + chunk.getX();
+        int absZ = -this.bounds.y + chunk.getZ();
+
+        int imgXTile; int imgYTile;
+        int maxImgXTile, maxImgYTile;
 
         if (this.orientation.isMinecraftXImageX()) {
-            dimgx = dx;
-            dimgy = dz;
+            imgXTile = absX;
+            imgYTile = absZ;
+            maxImgXTile = this.bounds.width - 1;
+            maxImgYTile = this.bounds.height - 1;
         }
         else {
-            dimgx = dz;
-            dimgy = dx;
+            imgXTile = absZ;
+            imgYTile = absX;
+            maxImgXTile = this.bounds.height - 1;
+            maxImgYTile = this.bounds.width - 1;
         }
 
         if (!this.orientation.isDownPositive()) {
-            dimgy = -dimgy;
+            imgYTile = maxImgYTile - imgYTile;
         }
         if (!this.orientation.isRightPositive()) {
-            dimgx = -dimgx;
-        }
-        if (dimgy != 0) {
-            return dimgy;
+            imgXTile = maxImgXTile - imgXTile;
         }
-        return dimgx;
+
+        return new Point(imgXTile, imgYTile);
+    }
+
+    public int compare(Chunk o1, Chunk o2) {
+        return this.orientation.compare(o1.getX(), o1.getZ(), o2.getX(), o2.getZ());
     }
 
     @Override
-    protected void getNextBatch(List<Chunk> nextBatch) {
-        nextBatch.clear();
-        if (!hasChunks()) {
-            return;
-        }
-        Chunk c = this.chunks.get(this.chunkCursor);
-        int x = c.getX();
-        nextBatch.add(c);
-        this.chunkCursor++;
-        for (; this.chunkCursor < this.chunks.size(); this.chunkCursor++) {
-            c = this.chunks.get(this.chunkCursor);
-            if (c.getX() == x) {
-                nextBatch.add(c);
-                if (nextBatch.size() >= this.getMaxBatchSize()) {
-                    this.chunkCursor++;
-                    return;
-                }
-            }
-            else {
-                return;
-            }
-        }
+    protected Chunk getNextChunk() {
+        return this.chunks.get(this.chunkCursor++);
     }
 
     @Override
-    protected int getMaxBatchSize() {
-        return 10;
+    protected int getMaxChunksInFlight() {
+        return this.queueSize;
     }
 
     @Override
@@ -236,161 +432,57 @@ public class DrawMapAction extends AbstractDrawMapAction implements Comparator<C
     }
 
     /**
-     * Gathers chunk names. Also sets bounds based on chunk name.
+     * Gathers chunks from the region files, or for a world without them from the chunk index, updating it first.
+     * Also sets bounds based on the chunk coordinates.
+     *
+     * @throws IOException if the region directory cannot be listed or a region file cannot be mapped
      */
     @Override
-    protected void gatherChunks() {
-        this.chunks = new ArrayList<Chunk>();
-        final FileFilter dirLevelFilter = new FileFilter() {
-
-            public boolean accept(File pathname) {
-                if (!pathname.isDirectory()) {
-                    return false;
-                }
-                String name = pathname.getName();
-                if (name.length() > 2) {
-                    return false;
-                }
-                char firstChar = name.charAt(0);
-                char secondChar = name.length() == 2 ? name.charAt(1) : 0;
-                if (name.length() == 2) {
-                    return firstChar == '1' && (((secondChar >= '0') && (secondChar <= '9')) || ((secondChar >= 'a') && (secondChar <= 's')));
-                }
-                else {
-                    return ((firstChar >= '0') && (firstChar <= '9')) || ((firstChar >= 'a') && (firstChar <= 'z'));
-                }
+    protected void gatherChunks() throws IOException {
+        File worldDir = this.baseFile.getParentFile();
+        RegionWorld regions = null;
+        long[] packed;
+        if (RegionWorld.isRegionWorld(worldDir)) {
+            regions = new RegionWorld(worldDir);
+            packed = regions.getChunks();
+        }
+        else {
+            ChunkIndex index = this.chunkIndexEnabled ? new ChunkIndex(worldDir) : new ChunkIndex(worldDir, null);
+            index.update(this.scanParallelism);
+            try {
+                index.save();
             }
-        };
-        final Pattern p = Pattern.compile("^c\\.(-?[0-9a-z]+).(-?[0-9a-z]+)\\.dat$");
-        final FileFilter levelFilter = new FileFilter() {
-            public boolean accept(File pathname) {
-                if (pathname.isDirectory()) {
-                    return false;
-                }
-                String name = pathname.getName();
-                Matcher m = p.matcher(name);
-                if (m.matches()) {
-                    return true;
-                }
-                return false;
+            catch (IOException e) {
+                System.err.println("Cannot save chunk index: " + e);
             }
-        };
-
-        final File[] firstLevelFiles = this.baseFile.getParentFile().listFiles(dirLevelFilter);
-        // split firstLevelFiles into 2 and spawn 2 threads for I/O
-        int half = firstLevelFiles.length / 2;
-        int rest = firstLevelFiles.length - half;
-        File[][] ff = new File[][]{
-                new File[half],
-                new File[rest],
-        };
-        System.arraycopy(firstLevelFiles, 0, ff[0], 0, half);
-        System.arraycopy(firstLevelFiles, half, ff[1], 0, rest);
-        Future<Object[]>[] futures = new Future[ff.length];
-        for (int i = 0; i < ff.length; i++) {
-            final File[] files = ff[i];
-            futures[i] = this.executor.submit(new Callable<Object[]>() {
-                public Object[] call() throws Exception {
-                    int minX = 0;
-                    int minZ = 0;
-                    int maxX = 0;
-                    int maxZ = 0;
-
-                    ArrayList<Chunk> threadChunks = new ArrayList<Chunk>();
-
-                    for (File firstLevelDir : files) {
-                        File[] secondLevelFiles = firstLevelDir.listFiles(dirLevelFilter);
-                        for (File secondLevelDir : secondLevelFiles) {
-                            File[] levelChunks = secondLevelDir.listFiles(levelFilter);
-                            for (File f : levelChunks) {
-                                Chunk c = null;
-                                try {
-                                    c = new Chunk(f);
-                                    minX = Math.min(minX, c.getX());
-                                    minZ = Math.min(minZ, c.getZ());
-                                    maxX = Math.max(maxX, c.getX());
-                                    maxZ = Math.max(maxZ, c.getZ());
-                                }
-                                catch (Exception e) {
-                                    e.printStackTrace();
-                                    c = null;
-                                }
-                                if (c != null) {
-                                    threadChunks.add(c);
-                                }
-                            }
-                        }
-                    }
-                    return new Object[]{threadChunks, Integer.valueOf(minX), Integer.valueOf(minZ), Integer.valueOf(maxX), Integer.valueOf(maxZ)};
-                }
-            });
+            packed = index.getChunks();
         }
+
+        this.chunks = new ArrayList<Chunk>(packed.length);
+        StringBuilder path = new StringBuilder();
         int minX = 0;
         int minZ = 0;
         int maxX = 0;
         int maxZ = 0;
-        for (int i = 0; i < futures.length; i++) {
-            try {
-                Object[] objs = futures[i].get();
-                this.chunks.addAll((List<Chunk>) objs[0]);
-                minX = Math.min(minX, ((Integer) objs[1]).intValue());
-                minZ = Math.min(minZ, ((Integer) objs[2]).intValue());
-                maxX = Math.max(maxX, ((Integer) objs[3]).intValue());
-                maxZ = Math.max(maxZ, ((Integer) objs[4]).intValue());
-            }
-            catch (InterruptedException e) {
-                e.printStackTrace();
+        for (long p : packed) {
+            int x = ChunkIndex.unpackX(p);
+            int z = ChunkIndex.unpackZ(p);
+            minX = Math.min(minX, x);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxZ = Math.max(maxZ, z);
+            if (regions != null) {
+                this.chunks.add(new Chunk(regions.getRegion(x >> 5, z >> 5), x, z));
             }
-            catch (ExecutionException e) {
-                e.printStackTrace();
+            else {
+                this.chunks.add(new Chunk(ChunkIndex.getChunkFile(worldDir, x, z, path), x, z));
             }
         }
-        Rectangle result = new Rectangle(minX, minZ, maxX - minX + 1, maxZ - minZ + 1);
-        this.bounds = result;
+        this.bounds = new Rectangle(minX, minZ, maxX - minX + 1, maxZ - minZ + 1);
     }
 
     @Override
     protected int getTotalChunks() {
         return this.chunks.size();
     }
-
-    protected void renderBatchResult(List<Chunk> chunks, List<BufferedImage> images) {
-
-        int h = 16 * this.bounds.height;
-        Graphics2D g = this.compositeCanvas.createGraphics();
-        g.setComposite(AlphaComposite.SrcOver);
-        for (int i = 0; i < chunks.size(); i++) {
-            Chunk chunk = chunks.get(i);
-            int absX = -this.bounds.x + chunk.getX();
-            int absZ = -this.bounds.y + chunk.getZ();
-
-            int imgXTile; int imgYTile;
-            int maxImgXTile, maxImgYTile;
-
-            if (this.orientation.isMinecraftXImageX()) {
-                imgXTile = absX;
-                imgYTile = absZ;
-                maxImgXTile = this.bounds.width - 1;
-                maxImgYTile = this.bounds.height - 1;
-            }
-            else {
-                imgXTile = absZ;
-                imgYTile = absX;
-                maxImgXTile = this.bounds.height - 1;
-                maxImgYTile = this.bounds.width - 1;
-            }
-
-            if (!this.orientation.isDownPositive()) {
-                imgYTile = maxImgYTile - imgYTile;
-            }
-            if (!this.orientation.isRightPositive()) {
-                imgXTile = maxImgXTile - imgXTile;
-            }
-
-            g.drawImage(images.get(i), imgXTile * 16, imgYTile * 16, null);
-        }
-        g.dispose();
-    }
-
-
 }
@@ -22,125 +22,154 @@
 
 package com.loumz.mcmapper;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
 import java.io.File;
-import java.util.Arrays;
-import java.util.concurrent.Callable;
 
+/**
+ * Draws a map that shades each column by light level and height and shows what is under water, after Cartograph.
+ * <p>
+ * Colors are packed ARGB pixels, not premultiplied, and are blended with integer arithmetic. The result is the
+ * exact blend of the colors as fractions, rounded down. The floating point blending this replaced sometimes fell
+ * just below a whole number instead, so colors may differ from maps it drew by 1.
+ */
 public class HeightCuedDrawMapAction extends DrawMapAction {
-    final int[] clear = new int[16 * 16 * 4];
+    /**
+     * Lowest y with its own brightness; blocks below it are black at any light level.
+     */
+    private static final int BRIGHTNESS_MIN_Y = -128;
+    /**
+     * Lowest y at which blocks are at full brightness at any light level.
+     */
+    private static final int BRIGHTNESS_MAX_Y = 256;
+    private static final int BRIGHTNESS_ROW = BRIGHTNESS_MAX_Y - BRIGHTNESS_MIN_Y;
+    /**
+     * Brightness by lighting (0 to 16) and y, lighting major.
+     */
+    private static final int[] BRIGHTNESS = createBrightnessTable();
+
     public HeightCuedDrawMapAction(File baseFile, PickerFrame frame, MapOrientation orientation) {
         super(baseFile, frame, orientation);
-        Arrays.fill(clear, 255);
     }
 
     @Override
-    protected Callable<Object> createCallable(final Chunk chunk, final BufferedImage bufferedImage) {
-        return new Callable<Object>() {
-            public Object call() throws Exception {
-                WritableRaster rs = bufferedImage.getRaster();
-                rs.setPixels(0, 0, 16, 16, clear);
-                chunk.load();
-                try {
-                    int[] rgbValues = new int[4];
-                    int[] currentValues = new int[4];
-                    for (int x = 0; x < 16; x++) {
-                        for (int z = 0; z < 16; z++) {
-                            Arrays.fill(currentValues, 0);
-                            for (int y = 127; y >= 0; y--) {
-                                byte b = chunk.getBlockAt(x, z, y);
-                                if (b == 0) {
+    protected String getColoringName() {
+        return "cartograph";
+    }
+
+    @Override
+    protected void renderChunk(Chunk chunk, int[] tile) throws Exception {
+        chunk.load(true);
+        try {
+            BlockPalette palette = LevelUtil.getPalette();
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    int argb = 0;
+                    for (int y = chunk.getHeightAt(x, z); y >= chunk.getMinY(); y--) {
+                        byte b = chunk.getBlockAt(x, z, y);
+                        if (b == 0) {
+                            continue;
+                        }
+                        int properties = palette.getProperties(b);
+                        int brightness = BlockPalette.FULL_BRIGHTNESS;
+                        int alpha = -1;
+                        if ((properties & BlockPalette.FIERY) == 0) {
+                            brightness = getBrightness(getLighting(chunk, x, z, y + 1), y);
+                            if ((properties & BlockPalette.WATERY) != 0) {
+                                byte blockAbove = (y == chunk.getMaxY()) ? 0 : chunk.getBlockAt(x, z, y + 1);
+                                if (blockAbove != 0) {
                                     continue;
                                 }
-                                LevelUtil.getRgbaValues(b, rgbValues);
-                                if (isFiery(b)) {
-                                    blend(currentValues, rgbValues, 128);
-                                }
-                                else {
-                                    int l = getLighting(chunk, x, z, y + 1) * 4;
-                                    int brightness = Math.min((int) (0.8 * l + 0.5 * y), 128);
-                                    if (isWatery(b)) {
-                                        byte blockAbove = (y == 127) ? 0 : chunk.getBlockAt(x, z, y + 1);
-                                        if (blockAbove == 0) {
-                                            rgbValues[3] = 128;
-                                            blend(currentValues, rgbValues, brightness);
-                                        }
-                                    }
-                                    else {
-                                        blend(currentValues, rgbValues, brightness);
-                                    }
-                                }
-                                if (currentValues[3] >= 255) {
-                                    break;
-                                }
+                                alpha = 128;
                             }
-
-                            int imageX = orientation.isMinecraftXImageX() ? x : z;
-                            int imageY = orientation.isMinecraftXImageX() ? z : x;
-                            if (!orientation.isRightPositive()) {
-                                imageX = 15 - imageX;
+                        }
+                        if (argb == 0) {
+                            // nothing above to blend with, so the block's shaded color is the blend
+                            argb = palette.getShadedColor(b, brightness);
+                            if (alpha >= 0) {
+                                argb = (argb & 0xffffff) | (alpha << 24);
                             }
-                            if (!orientation.isDownPositive()) {
-                                imageY = 15 - imageY;
+                            if ((argb >>> 24) == 0) {
+                                argb = 0;
                             }
-
-                            rs.setPixel(imageX, imageY, currentValues);
+                        }
+                        else {
+                            int color = palette.getColor(b);
+                            if (alpha >= 0) {
+                                color = (color & 0xffffff) | (alpha << 24);
+                            }
+                            argb = blend(argb, color, brightness);
+                        }
+                        if ((argb >>> 24) == 255) {
+                            break;
                         }
                     }
 
+                    tile[getPixelOffset(x, z, 16)] = argb;
                 }
-                finally {
-                    chunk.unload();
-                }
-                return null;
             }
-        };
+        }
+        finally {
+            chunk.unload();
+        }
     }
 
     /**
-     * Blend A over B and store into A.
-     * @param a array A (R/G/B/A)
-     * @param b array B (R/G/B/A)
+     * Blend A over B.
+     *
+     * @param a          color A, packed ARGB
+     * @param b          color B, packed ARGB
      * @param brightness used to scale R/G/B values of b. 128 = full values, 0 = 0.
+     * @return the blended color, packed ARGB
      */
-    protected void blend(int[] a, int[] b, int brightness) {
-        float alphaA = a[3] / 255.0f;
-        float alphaB = b[3] / 255.0f;
-        float alphaResult = alphaA + alphaB * (1 - alphaA);
-        float brightnessMultiplier = brightness / 128.0f;
-        a[0] = (int) ((a[0] * alphaA + b[0] * brightnessMultiplier * alphaB * (1 - alphaA)) / alphaResult);
-        a[1] = (int) ((a[1] * alphaA + b[1] * brightnessMultiplier * alphaB * (1 - alphaA)) / alphaResult);
-        a[2] = (int) ((a[2] * alphaA + b[2] * brightnessMultiplier * alphaB * (1 - alphaA)) / alphaResult);
-        a[3] = (int) (alphaResult * 255);
+    protected int blend(int a, int b, int brightness) {
+        int alphaA = a >>> 24;
+        int alphaB = b >>> 24;
+        if (alphaA == 0) {
+            return alphaB == 0 ? 0 : BlockPalette.shade(b, brightness);
+        }
+        // alphas scaled by 255 * 255 and brightness by 128; the sums of the weighted channels stay below 2^31
+        int coverageB = alphaB * (255 - alphaA);
+        int weightA = alphaA * 255 * 128;
+        int weightB = coverageB * brightness;
+        int divisor = (alphaA * 255 + coverageB) * 128;
+        int red = (((a >> 16) & 0xff) * weightA + ((b >> 16) & 0xff) * weightB) / divisor;
+        int green = (((a >> 8) & 0xff) * weightA + ((b >> 8) & 0xff) * weightB) / divisor;
+        int blue = ((a & 0xff) * weightA + (b & 0xff) * weightB) / divisor;
+        int alpha = (alphaA * 255 + coverageB) / 255;
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
     }
 
-    protected boolean isWatery(byte b) {
-        switch (b) {
-            case 8:
-            case 9:
-            case 79:
-                return true;
-            default:
-                return false;
+    /**
+     * Get how brightly a block is drawn.
+     *
+     * @param lighting the lighting above the block, from getLighting
+     * @param y        y of the block
+     * @return the brightness, 128 = full values, 0 = black
+     */
+    protected int getBrightness(int lighting, int y) {
+        if (y < BRIGHTNESS_MIN_Y) {
+            return 0;
+        }
+        if (y >= BRIGHTNESS_MAX_Y) {
+            return 128;
         }
+        return BRIGHTNESS[lighting * BRIGHTNESS_ROW + y - BRIGHTNESS_MIN_Y];
     }
 
-    protected boolean isFiery(byte b) {
-        switch (b) {
-            case 10:
-            case 11:
-            case 50:
-            case 51:
-            case 76:
-                return true;
-            default:
-                return false;
+    private static int[] createBrightnessTable() {
+        int[] brightness = new int[17 * BRIGHTNESS_ROW];
+        for (int lighting = 0; lighting <= 16; lighting++) {
+            int l = lighting * 4;
+            for (int y = BRIGHTNESS_MIN_Y; y < BRIGHTNESS_MAX_Y; y++) {
+                // y can be negative in Anvil chunks
+                brightness[lighting * BRIGHTNESS_ROW + y - BRIGHTNESS_MIN_Y] =
+                        Math.max(Math.min((int) (0.8 * l + 0.5 * y), 128), 0);
+            }
         }
+        return brightness;
     }
 
     protected byte getLighting(Chunk chunk, int x, int z, int y) {
-        if (y > 127) {
+        if (y > chunk.getMaxY()) {
             return 16;
         }
         byte s = chunk.getSkyLightAt(x, z, y);
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import com.loumz.mcmapper.png.ParallelPngEncoder;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Composites the whole map in one in-memory image and writes it as a PNG at the end, encoding bands of rows in
+ * parallel.
+ */
+public class ImageMapOutput extends MapOutput {
+    private final File file;
+    private final ParallelPngEncoder encoder;
+    private final BufferedImage canvas;
+    // backing array of canvas, packed premultiplied ARGB
+    private final int[] canvasPixels;
+    private final int mapHeight;
+
+    /**
+     * @param file         the PNG file to write
+     * @param tilesWide    width of the map in tiles
+     * @param tilesHigh    height of the map in tiles
+     * @param footerHeight height of the footer below the map
+     * @param encoder      the encoder to write the PNG with
+     */
+    public ImageMapOutput(File file, int tilesWide, int tilesHigh, int footerHeight, ParallelPngEncoder encoder) {
+        this.file = file;
+        this.encoder = encoder;
+        this.mapHeight = 16 * tilesHigh;
+        this.canvas = new BufferedImage(16 * tilesWide, this.mapHeight + footerHeight,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        this.canvasPixels = ((DataBufferInt) this.canvas.getRaster().getDataBuffer()).getData();
+    }
+
+    @Override
+    public void writeTile(int tileX, int tileY, int[] tile) {
+        int scanline = this.canvas.getWidth();
+        int offset = tileY * 16 * scanline + tileX * 16;
+        for (int row = 0; row < 16; row++) {
+            System.arraycopy(tile, row * 16, this.canvasPixels, offset + row * scanline, 16);
+        }
+    }
+
+    @Override
+    public void finish(BufferedImage footer) throws IOException {
+        if (footer != null) {
+            this.canvas.getRaster().setDataElements(0, this.mapHeight, footer.getRaster());
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(this.file), 64 * 1024);
+        try {
+            this.encoder.encode(out, this.canvasPixels, this.canvas.getWidth(), this.canvas.getHeight());
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the composited image
+     */
+    public BufferedImage getCanvas() {
+        return canvas;
+    }
+}
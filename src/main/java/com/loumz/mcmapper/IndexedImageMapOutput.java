@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import com.loumz.mcmapper.png.ParallelPngEncoder;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Composites the whole map in memory at one byte per pixel and writes it as an 8 bit palette PNG. Only works for
+ * maps of at most 256 colors, e.g. plain coloring; the palette is built from the colors as they arrive, with index 0
+ * transparent.
+ */
+public class IndexedImageMapOutput extends MapOutput {
+    private static final int MAX_COLORS = 256;
+    // open addressing table from color to palette index, twice the palette size so probes stay short
+    private static final int TABLE_SIZE = 2 * MAX_COLORS;
+
+    private final File file;
+    private final ParallelPngEncoder encoder;
+    private final int width;
+    private final int mapHeight;
+    private final int footerHeight;
+    // palette index of each pixel, row by row
+    private final byte[] canvas;
+    // packed premultiplied ARGB of each palette index
+    private final int[] palette = new int[MAX_COLORS];
+    private int colors = 1;
+    private final int[] tableColors = new int[TABLE_SIZE];
+    private final short[] tableIndices = new short[TABLE_SIZE];
+    private int lastColor;
+    private byte lastIndex;
+
+    /**
+     * @param file         the PNG file to write
+     * @param tilesWide    width of the map in tiles
+     * @param tilesHigh    height of the map in tiles
+     * @param footerHeight height of the footer below the map
+     * @param encoder      the encoder to write the PNG with
+     */
+    public IndexedImageMapOutput(File file, int tilesWide, int tilesHigh, int footerHeight,
+                                 ParallelPngEncoder encoder) {
+        this.file = file;
+        this.encoder = encoder;
+        this.width = 16 * tilesWide;
+        this.mapHeight = 16 * tilesHigh;
+        this.footerHeight = footerHeight;
+        this.canvas = new byte[this.width * (this.mapHeight + footerHeight)];
+        // -1 marks a free slot; transparent is always index 0 and never stored in the table
+        Arrays.fill(this.tableIndices, (short) -1);
+    }
+
+    @Override
+    public void writeTile(int tileX, int tileY, int[] tile) throws IOException {
+        int offset = tileY * 16 * this.width + tileX * 16;
+        for (int row = 0; row < 16; row++) {
+            for (int x = 0, i = offset + row * this.width; x < 16; x++, i++) {
+                int index = this.indexOf(tile[row * 16 + x]);
+                if (index < 0) {
+                    throw new IOException("Map has more than " + MAX_COLORS + " colors, cannot write an indexed PNG");
+                }
+                this.canvas[i] = (byte) index;
+            }
+        }
+    }
+
+    @Override
+    public void finish(BufferedImage footer) throws IOException {
+        if (footer != null) {
+            int[] pixels = ((DataBufferInt) footer.getRaster().getDataBuffer()).getData();
+            int offset = this.mapHeight * this.width;
+            int length = Math.min(pixels.length, this.footerHeight * this.width);
+            for (int i = 0; i < length; i++) {
+                int index = this.indexOf(pixels[i]);
+                // the footer is only decoration, so approximate its colors rather than fail the map
+                this.canvas[offset + i] = (byte) (index < 0 ? this.nearestIndexOf(pixels[i]) : index);
+            }
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(this.file), 64 * 1024);
+        try {
+            this.encoder.encodeIndexed(out, this.canvas, this.width, this.mapHeight + this.footerHeight,
+                    this.palette, this.colors);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the number of colors used so far, including transparent
+     */
+    public int getColorCount() {
+        return colors;
+    }
+
+    /**
+     * Find the palette index of a color, adding it if there is room.
+     *
+     * @param color packed premultiplied ARGB
+     * @return the palette index, or -1 if the palette is full
+     */
+    private int indexOf(int color) {
+        if ((color >>> 24) == 0) {
+            return 0;
+        }
+        if (color == this.lastColor) {
+            return this.lastIndex & 0xff;
+        }
+        int slot = (color * 0x9e3779b9) >>> 23;
+        while (this.tableIndices[slot] >= 0 && this.tableColors[slot] != color) {
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        int index = this.tableIndices[slot];
+        if (index < 0) {
+            if (this.colors == MAX_COLORS) {
+                return -1;
+            }
+            index = this.colors++;
+            this.palette[index] = color;
+            this.tableColors[slot] = color;
+            this.tableIndices[slot] = (short) index;
+        }
+        this.lastColor = color;
+        this.lastIndex = (byte) index;
+        return index;
+    }
+
+    /**
+     * @param color packed premultiplied ARGB
+     * @return the palette index of the closest color
+     */
+    private int nearestIndexOf(int color) {
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < this.colors; i++) {
+            long distance = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int delta = ((color >>> shift) & 0xff) - ((this.palette[i] >>> shift) & 0xff);
+                distance += delta * delta;
+            }
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import java.util.HashMap;
+
+/**
+ * Maps the block names used by the palettes of 1.13+ chunks to the numeric ids the colors are defined for.
+ */
+final class LegacyBlockIds {
+    // blocks without a numeric id of their own are drawn as stone
+    private static final byte UNKNOWN = 1;
+
+    private static final HashMap<String, Byte> IDS = new HashMap<String, Byte>();
+    // checked in order against the end of names not found in IDS
+    private static final String[] SUFFIXES = {
+            "_planks", "_sapling", "_log", "_wood", "_stem", "_hyphae", "_leaves", "_wool", "_carpet", "_bed",
+            "_slab", "_stairs", "_wall_torch", "_torch", "_sign", "_door", "_pressure_plate", "_button", "_fence_gate",
+            "_fence", "_tulip", "_terracotta", "_concrete", "_glass", "_glass_pane", "_ore", "_mushroom"
+    };
+    private static final byte[] SUFFIX_IDS = {
+            5, 6, 17, 17, 17, 17, 18, 35, 35, 26,
+            44, 53, 50, 50, 63, 64, 70, 77, 85,
+            85, 38, 82, 1, 20, 20, 1, 39
+    };
+
+    static {
+        String[] names = {
+                "air", "cave_air", "void_air", "stone", "granite", "diorite", "andesite", "grass_block", "dirt",
+                "coarse_dirt", "podzol", "cobblestone", "bedrock", "water", "bubble_column", "lava", "sand",
+                "red_sand", "gravel", "gold_ore", "iron_ore", "coal_ore", "sponge", "wet_sponge", "glass", "lapis_ore",
+                "lapis_block", "dispenser", "sandstone", "note_block", "powered_rail", "detector_rail",
+                "sticky_piston", "cobweb", "grass", "short_grass", "tall_grass", "fern", "large_fern", "dead_bush",
+                "piston", "dandelion", "poppy", "brown_mushroom", "red_mushroom", "gold_block", "iron_block",
+                "bricks", "tnt", "bookshelf", "mossy_cobblestone", "obsidian", "fire", "spawner", "chest",
+                "redstone_wire", "diamond_ore", "diamond_block", "crafting_table", "wheat", "farmland", "furnace",
+                "ladder", "rail", "lever", "redstone_ore", "snow", "ice", "snow_block", "cactus", "clay",
+                "sugar_cane", "jukebox", "pumpkin", "netherrack", "soul_sand", "glowstone", "nether_portal",
+                "jack_o_lantern", "seagrass", "tall_seagrass", "kelp", "kelp_plant", "packed_ice", "blue_ice", "torch",
+                "redstone_torch", "redstone_wall_torch"
+        };
+        byte[] ids = {
+                0, 0, 0, 1, 1, 1, 1, 2, 3,
+                3, 3, 4, 7, 9, 9, 11, 12,
+                12, 13, 14, 15, 16, 19, 19, 20, 21,
+                22, 23, 24, 25, 27, 28,
+                29, 30, 31, 31, 31, 31, 31, 32,
+                33, 37, 38, 39, 40, 41, 42,
+                45, 46, 47, 48, 49, 51, 52, 54,
+                55, 56, 57, 58, 59, 60, 61,
+                65, 66, 69, 73, 78, 79, 80, 81, 82,
+                83, 84, 86, 87, 88, 89, 90,
+                91, 9, 9, 9, 9, 79, 79, 50,
+                76, 76
+        };
+        for (int i = 0; i < names.length; i++) {
+            IDS.put(names[i], Byte.valueOf(ids[i]));
+        }
+    }
+
+    private LegacyBlockIds() {
+    }
+
+    /**
+     * Get the id to color a block by.
+     *
+     * @param name the block name, with or without the "minecraft:" namespace
+     * @return the id; blocks with no close match get the id of stone
+     */
+    static byte get(String name) {
+        int colon = name.indexOf(':');
+        if (colon >= 0) {
+            name = name.substring(colon + 1);
+        }
+        Byte id = IDS.get(name);
+        if (id != null) {
+            return id.byteValue();
+        }
+        for (int i = 0; i < SUFFIXES.length; i++) {
+            if (name.endsWith(SUFFIXES[i])) {
+                return SUFFIX_IDS[i];
+            }
+        }
+        return UNKNOWN;
+    }
+}
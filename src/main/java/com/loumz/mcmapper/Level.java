@@ -25,30 +25,88 @@ package com.loumz.mcmapper;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 public class Level {
+    /**
+     * A cached chunk with the size it was charged to the budget when added. The chunk can grow later, as Anvil
+     * sections are unpacked on first use, so the charged size is what is taken off again when it leaves.
+     */
+    private static final class CachedChunk {
+        final Chunk chunk;
+        final int size;
+
+        CachedChunk(Chunk chunk, int size) {
+            this.chunk = chunk;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Default budget of the loaded chunk cache, about 950 chunks.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
     File baseFile;
     private boolean initialized;
+    // exactly one of these is set, depending on how the world is stored
+    private ChunkIndex index;
+    private RegionWorld regions;
     private Rectangle bounds;
+    private final StringBuilder pathBuilder = new StringBuilder();
+    // loaded chunks by packed coordinates, least recently used first; guarded by itself
+    private final LinkedHashMap<Long, CachedChunk> cache = new LinkedHashMap<Long, CachedChunk>(256, 0.75f, true);
+    private final long cacheBudget;
+    private long cacheBytes;
+    private long cacheHits;
+    private long cacheMisses;
+    private long cacheEvictions;
 
     public Level(File baseFile) {
+        this(baseFile, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * @param baseFile    the level.dat file
+     * @param cacheBudget bytes of loaded chunk data kept by {@link #getLoadedChunk}
+     */
+    public Level(File baseFile, long cacheBudget) {
         this.baseFile = baseFile;
+        this.cacheBudget = cacheBudget;
     }
 
-    private void initialize() {
+    private synchronized void initialize() throws IOException {
         if (this.initialized) {
             return;
         }
-        this.bounds = LevelUtil.getLevelBounds(baseFile.getParentFile());
+        File worldDir = baseFile.getParentFile();
+        if (RegionWorld.isRegionWorld(worldDir)) {
+            this.regions = new RegionWorld(worldDir);
+            this.bounds = LevelUtil.getLevelBounds(this.regions.getChunks());
+        }
+        else {
+            this.index = new ChunkIndex(worldDir);
+            this.index.update();
+            this.bounds = LevelUtil.getLevelBounds(this.index.getChunks());
+        }
         this.initialized = true;
     }
 
-    public Rectangle getBounds() {
+    public Rectangle getBounds() throws IOException {
         this.initialize();
         return this.bounds;
     }
 
-    public Chunk getChunk(int x, int z) {
+    /**
+     * Get a chunk, not loaded. Every call returns a new Chunk.
+     *
+     * @param x chunk x
+     * @param z chunk z
+     * @return the chunk, or null if there is none
+     * @throws IOException if the world cannot be listed or the chunk's region file cannot be mapped
+     */
+    public Chunk getChunk(int x, int z) throws IOException {
         this.initialize();
         int maxX = this.bounds.x + this.bounds.width;
         int maxZ = this.bounds.y + this.bounds.height;
@@ -58,27 +116,101 @@ public class Level {
         if (z < this.bounds.y || z > maxZ) {
             return null;
         }
-        try {
-            return this.loadChunk(x, z);
+        return this.loadChunk(x, z);
+    }
+
+    /**
+     * Get a chunk with its blocks and light loaded, from the cache if it is there. The chunk is shared with other
+     * callers, so it must not be unloaded. Safe to call from several threads; if two miss the same chunk at once,
+     * both load it.
+     *
+     * @param x chunk x
+     * @param z chunk z
+     * @return the loaded chunk, or null if there is none
+     * @throws IOException if the chunk cannot be loaded
+     */
+    public Chunk getLoadedChunk(int x, int z) throws IOException {
+        Long key = Long.valueOf(ChunkIndex.pack(x, z));
+        synchronized (this.cache) {
+            CachedChunk cached = this.cache.get(key);
+            if (cached != null) {
+                this.cacheHits++;
+                return cached.chunk;
+            }
+            this.cacheMisses++;
         }
-        catch (IOException e) {
-            e.printStackTrace();
+        Chunk c = this.getChunk(x, z);
+        if (c == null) {
             return null;
         }
+        c.load(true);
+        this.cacheChunk(key, c);
+        return c;
+    }
+
+    private void cacheChunk(Long key, Chunk c) {
+        CachedChunk entry = new CachedChunk(c, c.getLoadedSize());
+        synchronized (this.cache) {
+            CachedChunk old = this.cache.put(key, entry);
+            if (old != null) {
+                this.cacheBytes -= old.size;
+            }
+            this.cacheBytes += entry.size;
+            Iterator<CachedChunk> eldest = this.cache.values().iterator();
+            // always keep the chunk just added
+            while (this.cacheBytes > this.cacheBudget && this.cache.size() > 1) {
+                CachedChunk evicted = eldest.next();
+                eldest.remove();
+                this.cacheBytes -= evicted.size;
+                this.cacheEvictions++;
+            }
+        }
+    }
+
+    /**
+     * Drop all chunks from the cache. The counters are kept.
+     */
+    public void clearCache() {
+        synchronized (this.cache) {
+            this.cache.clear();
+            this.cacheBytes = 0;
+        }
+    }
+
+    public long getCacheBytes() {
+        synchronized (this.cache) {
+            return cacheBytes;
+        }
+    }
+
+    public long getCacheHits() {
+        synchronized (this.cache) {
+            return cacheHits;
+        }
+    }
+
+    public long getCacheMisses() {
+        synchronized (this.cache) {
+            return cacheMisses;
+        }
+    }
+
+    public long getCacheEvictions() {
+        synchronized (this.cache) {
+            return cacheEvictions;
+        }
     }
 
     private Chunk loadChunk(int x, int z) throws IOException {
-        String xDirName = LevelUtil.to36(((x % 64) + 64) % 64);
-        String zDirName = LevelUtil.to36(((z % 64) + 64) % 64);
-        String fileName = String.format("c.%s.%s.dat", LevelUtil.to36(x), LevelUtil.to36(z));
-        File f = new File(this.baseFile.getParent(), xDirName);
-        f = new File(f, zDirName);
-        f = new File(f, fileName);
-        if (!f.exists()) {
+        if (this.regions != null) {
+            return this.regions.getChunk(x, z);
+        }
+        if (!this.index.contains(x, z)) {
             return null;
         }
-        Chunk c = new Chunk(f);
-        // this.cacheChunk(x, z, c);
-        return c;
+        synchronized (this.pathBuilder) {
+            File f = ChunkIndex.getChunkFile(this.baseFile.getParentFile(), x, z, this.pathBuilder);
+            return new Chunk(f, x, z);
+        }
     }
 }
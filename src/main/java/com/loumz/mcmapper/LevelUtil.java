@@ -24,98 +24,59 @@ package com.loumz.mcmapper;
 
 import java.awt.*;
 import java.io.File;
-import java.io.FileFilter;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
 
 public class LevelUtil {
-    public static Rectangle getLevelBounds(File topDir) {
-        FileFilter dirLevelFilter = new FileFilter() {
-
-            public boolean accept(File pathname) {
-                if (!pathname.isDirectory()) {
-                    return false;
-                }
-                String name = pathname.getName();
-                if (name.length() > 2) {
-                    return false;
-                }
-                char firstChar = name.charAt(0);
-                char secondChar = name.length() == 2 ? name.charAt(1) : 0;
-                if (name.length() == 2) {
-                    return firstChar == '1' && (((secondChar >= '0') && (secondChar <= '9')) || ((secondChar >= 'a') && (secondChar <= 's')));
-                }
-                else {
-                    return ((firstChar >= '0') && (firstChar <= '9')) || ((firstChar >= 'a') && (firstChar <= 'z'));
-                }
-            }
-        };
-        final Pattern p = Pattern.compile("^c\\.(-?[0-9a-z]+).(-?[0-9a-z]+)\\.dat$");
-        final Rectangle result = new Rectangle(0, 0, 0, 0);
-        FileFilter levelFilter = new FileFilter() {
-            public boolean accept(File pathname) {
-                if (pathname.isDirectory()) {
-                    return false;
-                }
-                String name = pathname.getName();
-                Matcher m = p.matcher(name);
-                if (m.matches()) {
-                    String x36 = m.group(1);
-                    String z36 = m.group(2);
-                    int x = un36(x36);
-                    int z = un36(z36);
-                    if (x < result.x) {
-                        result.x = x;
-                    }
-                    if (x > result.width) {
-                        result.width = x;
-                    }
-                    if (z < result.y) {
-                        result.y = z;
-                    }
-                    if (z > result.height) {
-                        result.height = z;
-                    }
-                    return true;
-                }
-                return false;
-            }
-        };
+    public static Rectangle getLevelBounds(File topDir) throws IOException {
+        if (RegionWorld.isRegionWorld(topDir)) {
+            return getLevelBounds(new RegionWorld(topDir).getChunks());
+        }
+        ChunkIndex index = new ChunkIndex(topDir);
+        index.update();
+        return getLevelBounds(index.getChunks());
+    }
 
-        File[] firstLevelFiles = topDir.listFiles(dirLevelFilter);
-        for (File firstLevelDir : firstLevelFiles) {
-            File[] secondLevelFiles = firstLevelDir.listFiles(dirLevelFilter);
-            for (File secondLevelDir : secondLevelFiles) {
-                File[] levelChunks = secondLevelDir.listFiles(levelFilter);
-            }
+    /**
+     * Get the bounds of a world including the origin, with the width and height being the difference between the
+     * largest and smallest coordinates.
+     *
+     * @param chunks the packed coordinates of the chunks of the world
+     * @return the bounds
+     */
+    public static Rectangle getLevelBounds(long[] chunks) {
+        Rectangle result = new Rectangle(0, 0, 0, 0);
+        int maxX = 0;
+        int maxZ = 0;
+        for (long chunk : chunks) {
+            int x = ChunkIndex.unpackX(chunk);
+            int z = ChunkIndex.unpackZ(chunk);
+            result.x = Math.min(result.x, x);
+            result.y = Math.min(result.y, z);
+            maxX = Math.max(maxX, x);
+            maxZ = Math.max(maxZ, z);
         }
-        result.width -= result.x;
-        result.height -= result.y;
+        result.width = maxX - result.x;
+        result.height = maxZ - result.y;
         return result;
     }
 
-    public static int un36(String n36) {
-        int mul = 1;
-        if (n36.startsWith("-")) {
-            mul = -1;
-            n36 = n36.substring(1);
+    /**
+     * Parse a base 36 int with lower case digits, like Integer.parseInt(n36, 36).
+     *
+     * @param n36 the characters
+     * @return the number
+     * @throws NumberFormatException if the characters are not a number
+     */
+    public static int un36(CharSequence n36) {
+        long n = ChunkFileNames.parseBase36(n36, 0, n36.length());
+        if (n == ChunkFileNames.NOT_A_CHUNK) {
+            throw new NumberFormatException("Not a base 36 number: " + n36);
         }
-        int n = 0;
-        char[] ch = n36.toCharArray();
-        for (char aCh : ch) {
-            n *= 36;
-            if (aCh >= '0' && aCh <= '9') {
-                n += (aCh - '0');
-            }
-            else if (aCh >= 'a' && aCh <= 'z') {
-                n += 10 + (aCh - 'a');
-            }
-        }
-        return mul * n;
+        return (int) n;
     }
 
     public static String to36(int n) {
-        return Integer.toString(n, 36);
+        return ChunkFileNames.appendBase36(new StringBuilder(8), n).toString();
     }
 
     private static int[] RGBA_VALUES = new int[]{
@@ -377,9 +338,20 @@ public class LevelUtil {
             0, 0, 0, 0,
     };
 
+    private static final BlockPalette PALETTE = new BlockPalette(RGBA_VALUES, new int[]{8, 9, 79},
+            new int[]{10, 11, 50, 51, 76});
+
+    /**
+     * Get the palette maps are drawn with.
+     *
+     * @return the palette
+     */
+    public static BlockPalette getPalette() {
+        return PALETTE;
+    }
 
     public static void getRgbaValues(byte b, int[] rgbValues) {
-        int ofs = b * 4;
+        int ofs = (b & 0xff) * 4;
         if (ofs >= RGBA_VALUES.length) {
             ofs = 0;
         }
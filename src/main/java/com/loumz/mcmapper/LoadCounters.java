@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+/**
+ * What the chunk loads on one thread have cost since the counters were last reset. {@link Chunk#load(boolean)} adds
+ * to the counters of the thread it runs on; the render loop resets them before each chunk and reads them after.
+ */
+final class LoadCounters {
+    private static final ThreadLocal<LoadCounters> COUNTERS = new ThreadLocal<LoadCounters>() {
+        @Override
+        protected LoadCounters initialValue() {
+            return new LoadCounters();
+        }
+    };
+
+    long bytesRead;
+    long bytesInflated;
+    long inflateNanos;
+    long inflateAllocated;
+    long parseNanos;
+    long parseAllocated;
+
+    /**
+     * @return the counters of the current thread
+     */
+    static LoadCounters get() {
+        return COUNTERS.get();
+    }
+
+    void reset() {
+        this.bytesRead = 0;
+        this.bytesInflated = 0;
+        this.inflateNanos = 0;
+        this.inflateAllocated = 0;
+        this.parseNanos = 0;
+        this.parseAllocated = 0;
+    }
+}
@@ -54,4 +54,42 @@ public enum MapOrientation {
     public boolean isRightPositive() {
         return rightIsPositive;
     }
+
+    /**
+     * Compare two chunk positions by where they end up in the image: top to bottom, then left to right.
+     *
+     * @param x1 x of the first chunk
+     * @param z1 z of the first chunk
+     * @param x2 x of the second chunk
+     * @param z2 z of the second chunk
+     * @return negative, zero or positive as the first chunk comes before, at or after the second
+     */
+    public int compare(int x1, int z1, int x2, int z2) {
+        // sort by image-y, image-x
+        int dx = x1 - x2;
+        int dz = z1 - z2;
+
+        int dimgx;
+        int dimgy;
+
+        if (this.minecraftXIsImageX) {
+            dimgx = dx;
+            dimgy = dz;
+        }
+        else {
+            dimgx = dz;
+            dimgy = dx;
+        }
+
+        if (!this.downIsPositive) {
+            dimgy = -dimgy;
+        }
+        if (!this.rightIsPositive) {
+            dimgx = -dimgx;
+        }
+        if (dimgy != 0) {
+            return dimgy;
+        }
+        return dimgx;
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Destination of the rendered chunk tiles of a map. The map is a grid of 16x16 pixel tiles; tiles arrive
+ * roughly in row order, one per chunk, and grid cells without a chunk stay transparent.
+ */
+public abstract class MapOutput {
+    /**
+     * Write one rendered chunk.
+     *
+     * @param tileX column of the tile in the grid
+     * @param tileY row of the tile in the grid
+     * @param tile  16x16 packed premultiplied ARGB pixels, row by row
+     * @throws IOException on write errors
+     */
+    public abstract void writeTile(int tileX, int tileY, int[] tile) throws IOException;
+
+    /**
+     * Complete the output after all tiles have been written.
+     *
+     * @param footer TYPE_INT_ARGB_PRE image as wide as the map to put below it, or null
+     * @throws IOException on write errors
+     */
+    public abstract void finish(BufferedImage footer) throws IOException;
+
+    /**
+     * Release any resources still held, e.g. after a failed render. Does nothing after {@link #finish}.
+     */
+    public void close() {
+    }
+}
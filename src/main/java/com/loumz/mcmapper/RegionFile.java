@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import com.loumz.mcmapper.nbt.DecompressionContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A McRegion or Anvil file, region/r.&lt;x&gt;.&lt;z&gt;.mcr or .mca, holding the chunks of a 32x32 chunk area. The
+ * file is memory mapped once and only read with absolute gets, so any number of threads can load chunks from it.
+ * <p/>
+ * The file starts with two 4 KB tables of 1024 ints, indexed by (x mod 32) + 32 * (z mod 32). The first holds each
+ * chunk's offset in 4 KB sectors (upper 24 bits) and its length in sectors (lower 8 bits), 0 for missing chunks; the
+ * second the time each chunk was saved, in seconds. A chunk is stored as its compressed length plus one, a
+ * compression byte (1 gzip, 2 zlib) and the compressed NBT.
+ */
+public class RegionFile {
+    public static final int CHUNKS = 32;
+    private static final int SECTOR_SIZE = 4096;
+    private static final int COMPRESSION_GZIP = 1;
+    private static final int COMPRESSION_ZLIB = 2;
+
+    private final File file;
+    private final int regionX;
+    private final int regionZ;
+    private final boolean anvil;
+    private final ByteBuffer buffer;
+    private final int[] locations = new int[CHUNKS * CHUNKS];
+    private final int[] timestamps = new int[CHUNKS * CHUNKS];
+
+    /**
+     * Map a region file and read its tables.
+     *
+     * @param file    the region file
+     * @param regionX region x, chunk x / 32
+     * @param regionZ region z, chunk z / 32
+     * @throws IOException if the file cannot be mapped or is too short
+     */
+    public RegionFile(File file, int regionX, int regionZ) throws IOException {
+        this.file = file;
+        this.regionX = regionX;
+        this.regionZ = regionZ;
+        this.anvil = file.getName().endsWith("." + RegionWorld.ANVIL_EXTENSION);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size == 0) {
+                // created but never written to
+                this.buffer = ByteBuffer.allocate(0);
+                return;
+            }
+            if (size < 2 * SECTOR_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Bad region file size " + size + ": " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            this.buffer = mapped;
+        }
+        finally {
+            raf.close();
+        }
+        for (int i = 0; i < CHUNKS * CHUNKS; i++) {
+            this.locations[i] = this.buffer.getInt(i * 4);
+            this.timestamps[i] = this.buffer.getInt(SECTOR_SIZE + i * 4);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true for an Anvil (.mca) region, whose chunks are made of sections
+     */
+    public boolean isAnvil() {
+        return anvil;
+    }
+
+    /**
+     * Get the coordinates of the chunks in this region.
+     *
+     * @return the chunk coordinates packed as by {@link ChunkIndex#pack}
+     */
+    public long[] getChunks() {
+        int n = 0;
+        for (int location : this.locations) {
+            if (location != 0) {
+                n++;
+            }
+        }
+        long[] chunks = new long[n];
+        n = 0;
+        for (int i = 0; i < CHUNKS * CHUNKS; i++) {
+            if (this.locations[i] != 0) {
+                chunks[n++] = ChunkIndex.pack(this.regionX * CHUNKS + i % CHUNKS, this.regionZ * CHUNKS + i / CHUNKS);
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * @param x chunk x, in the world or in the region
+     * @param z chunk z, in the world or in the region
+     * @return true if the region has the chunk
+     */
+    public boolean hasChunk(int x, int z) {
+        return this.locations[index(x, z)] != 0;
+    }
+
+    /**
+     * @param x chunk x
+     * @param z chunk z
+     * @return the time the chunk was saved, in ms
+     */
+    public long getTimestamp(int x, int z) {
+        return (this.timestamps[index(x, z)] & 0xffffffffL) * 1000;
+    }
+
+    /**
+     * @param x chunk x
+     * @param z chunk z
+     * @return the length of the compressed chunk, or -1 if it is missing or damaged
+     */
+    public int getCompressedLength(int x, int z) {
+        int offset = this.getDataOffset(x, z);
+        return offset < 0 ? -1 : this.buffer.getInt(offset - 5) - 1;
+    }
+
+    /**
+     * Get a hash of the uncompressed chunk without decompressing it: the Adler-32 trailer of zlib data, the CRC-32
+     * and size trailer of gzip data.
+     *
+     * @param x chunk x
+     * @param z chunk z
+     * @return the hash, or -1 if the chunk is missing or damaged
+     */
+    public long getContentHash(int x, int z) {
+        int offset = this.getDataOffset(x, z);
+        if (offset < 0) {
+            return -1;
+        }
+        int length = this.buffer.getInt(offset - 5) - 1;
+        if (length < 8) {
+            return -1;
+        }
+        if (this.buffer.get(offset - 1) == COMPRESSION_ZLIB) {
+            return this.buffer.getInt(offset + length - 4) & 0xffffffffL;
+        }
+        long crc = Integer.reverseBytes(this.buffer.getInt(offset + length - 8)) & 0xffffffffL;
+        long size = Integer.reverseBytes(this.buffer.getInt(offset + length - 4)) & 0xffffffffL;
+        return (crc << 32) | size;
+    }
+
+    /**
+     * Decompress a chunk.
+     *
+     * @param x       chunk x
+     * @param z       chunk z
+     * @param context the context to decompress with
+     * @return the number of decompressed bytes, available from {@link DecompressionContext#getOutput()}
+     * @throws IOException if the chunk is missing or damaged
+     */
+    public int inflateChunk(int x, int z, DecompressionContext context) throws IOException {
+        int offset = this.getDataOffset(x, z);
+        if (offset < 0) {
+            throw new IOException("Missing or damaged chunk " + x + ", " + z + " in " + this.file);
+        }
+        int length = this.buffer.getInt(offset - 5) - 1;
+        byte compression = this.buffer.get(offset - 1);
+        if (compression != COMPRESSION_ZLIB && compression != COMPRESSION_GZIP) {
+            throw new IOException("Unknown compression " + compression + " of chunk " + x + ", " + z + " in "
+                    + this.file);
+        }
+        return context.inflate(this.buffer, offset, length, compression == COMPRESSION_GZIP);
+    }
+
+    /**
+     * Get the offset of a chunk's compressed data, checking that it is inside the file.
+     *
+     * @return the offset, or -1 if the chunk is missing or damaged
+     */
+    private int getDataOffset(int x, int z) {
+        int location = this.locations[index(x, z)];
+        if (location == 0) {
+            return -1;
+        }
+        long start = (long) (location >>> 8) * SECTOR_SIZE;
+        long sectors = location & 0xff;
+        if (start < 2 * SECTOR_SIZE || start + 5 > this.buffer.capacity()) {
+            return -1;
+        }
+        int length = this.buffer.getInt((int) start);
+        if (length < 1 || start + 4 + length > this.buffer.capacity() || 4 + length > sectors * SECTOR_SIZE) {
+            return -1;
+        }
+        return (int) start + 5;
+    }
+
+    private static int index(int x, int z) {
+        return (x & (CHUNKS - 1)) + (z & (CHUNKS - 1)) * CHUNKS;
+    }
+}
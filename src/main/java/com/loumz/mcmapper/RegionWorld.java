@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The region files of a McRegion or Anvil world, in its region directory. Region files are mapped when first used
+ * and shared by all chunks in them. A converted world keeps its old McRegion files next to the Anvil ones, so if
+ * there are any Anvil files only those are used.
+ */
+public class RegionWorld {
+    public static final String MCREGION_EXTENSION = "mcr";
+    public static final String ANVIL_EXTENSION = "mca";
+
+    private final File regionDir;
+    private final String extension;
+    // by packed region coordinates, null values for missing files; guarded by itself
+    private final HashMap<Long, RegionFile> regions = new HashMap<Long, RegionFile>();
+
+    public RegionWorld(File worldDir) {
+        this.regionDir = new File(worldDir, "region");
+        this.extension = hasRegionFiles(worldDir, ANVIL_EXTENSION) ? ANVIL_EXTENSION : MCREGION_EXTENSION;
+    }
+
+    /**
+     * Check whether a world is stored in region files.
+     *
+     * @param worldDir the world directory
+     * @return true if the world has a region directory with at least one region file
+     */
+    public static boolean isRegionWorld(File worldDir) {
+        return hasRegionFiles(worldDir, ANVIL_EXTENSION) || hasRegionFiles(worldDir, MCREGION_EXTENSION);
+    }
+
+    private static boolean hasRegionFiles(File worldDir, String extension) {
+        String[] names = new File(worldDir, "region").list();
+        if (names == null) {
+            return false;
+        }
+        for (String name : names) {
+            if (ChunkFileNames.parseRegionName(name, extension) != ChunkFileNames.NOT_A_CHUNK) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the coordinates of all chunks, mapping every region file.
+     *
+     * @return the chunk coordinates packed as by {@link ChunkIndex#pack}
+     * @throws IOException if the region directory cannot be listed or a region file cannot be mapped
+     */
+    public long[] getChunks() throws IOException {
+        ArrayList<long[]> perRegion = new ArrayList<long[]>();
+        int count = 0;
+        DirectoryStream<Path> stream = Files.newDirectoryStream(this.regionDir.toPath());
+        try {
+            for (Path path : stream) {
+                long packed = ChunkFileNames.parseRegionName(path.getFileName().toString(), this.extension);
+                if (packed == ChunkFileNames.NOT_A_CHUNK) {
+                    continue;
+                }
+                RegionFile region = this.getRegion(ChunkIndex.unpackX(packed), ChunkIndex.unpackZ(packed));
+                if (region != null) {
+                    long[] regionChunks = region.getChunks();
+                    perRegion.add(regionChunks);
+                    count += regionChunks.length;
+                }
+            }
+        }
+        finally {
+            stream.close();
+        }
+        long[] chunks = new long[count];
+        int n = 0;
+        for (long[] regionChunks : perRegion) {
+            System.arraycopy(regionChunks, 0, chunks, n, regionChunks.length);
+            n += regionChunks.length;
+        }
+        return chunks;
+    }
+
+    /**
+     * Get a region file, mapping it if needed.
+     *
+     * @param regionX region x, chunk x / 32
+     * @param regionZ region z, chunk z / 32
+     * @return the region, or null if there is no such file
+     * @throws IOException if the region file cannot be mapped
+     */
+    public RegionFile getRegion(int regionX, int regionZ) throws IOException {
+        Long key = Long.valueOf(ChunkIndex.pack(regionX, regionZ));
+        synchronized (this.regions) {
+            if (this.regions.containsKey(key)) {
+                return this.regions.get(key);
+            }
+            File f = new File(this.regionDir, "r." + regionX + "." + regionZ + "." + this.extension);
+            RegionFile region = f.isFile() ? new RegionFile(f, regionX, regionZ) : null;
+            this.regions.put(key, region);
+            return region;
+        }
+    }
+
+    /**
+     * Get a chunk, not loaded.
+     *
+     * @param x chunk x
+     * @param z chunk z
+     * @return the chunk, or null if there is none
+     * @throws IOException if its region file cannot be mapped
+     */
+    public Chunk getChunk(int x, int z) throws IOException {
+        RegionFile region = this.getRegion(x >> 5, z >> 5);
+        if (region == null || !region.hasChunk(x, z)) {
+            return null;
+        }
+        return new Chunk(region, x, z);
+    }
+}
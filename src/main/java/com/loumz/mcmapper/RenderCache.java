@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * Tiles rendered by a previous run, so that chunks whose files have not changed need not be rendered again.
+ * <p/>
+ * The cache file holds one entry per chunk, in render order: chunk x and z, the chunk's mtime and compressed size, a
+ * content hash, and the 16x16 tile. The content hash is taken from the trailer of the compressed data (see
+ * {@link Chunk#getContentHash()}), so it costs an 8 byte read to check a chunk whose mtime changed but whose content
+ * did not. Because the
+ * chunks are looked up in the same order, the old file is read once, front to back, while the new one is written
+ * next to it; memory use does not depend on the size of the world.
+ * <p/>
+ * Chunks must be passed to {@link #lookup} in render order, and each looked up chunk must then be passed to
+ * {@link #store} in the same order.
+ */
+public class RenderCache {
+    private static final int MAGIC = 0x4d434d43;
+    // bump when rendered tiles change, to throw away old caches
+    private static final int VERSION = 1;
+    private static final int TILE_BYTES = 16 * 16 * 4;
+
+    private final File file;
+    private final File newFile;
+    private final String key;
+    private final MapOrientation orientation;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private final byte[] tileBytes = new byte[TILE_BYTES];
+    // mtime, size and hash of the chunks looked up but not stored yet
+    private final Queue<long[]> pending = new LinkedList<long[]>();
+
+    // current entry of the old cache
+    private boolean hasEntry;
+    private int entryX;
+    private int entryZ;
+    private long entryModified;
+    private long entryLength;
+    private long entryHash;
+
+    private int hits;
+    private int misses;
+
+    /**
+     * Open the cache file and start writing its replacement.
+     *
+     * @param file        the cache file, need not exist
+     * @param key         identifies the rendering mode; a cache written with another key is ignored
+     * @param orientation the orientation of the map, which determines the order of the chunks
+     * @throws IOException if the replacement cannot be created
+     */
+    public RenderCache(File file, String key, MapOrientation orientation) throws IOException {
+        this.file = file;
+        this.newFile = new File(file.getPath() + ".new");
+        this.key = key + " " + orientation;
+        this.orientation = orientation;
+        if (file.isFile()) {
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+                if (this.in.readInt() != MAGIC || this.in.readInt() != VERSION || !this.key.equals(this.in.readUTF())) {
+                    this.closeInput();
+                }
+                else {
+                    this.readEntry();
+                }
+            }
+            catch (IOException e) {
+                this.closeInput();
+            }
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.newFile), 64 * 1024));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeUTF(this.key);
+    }
+
+    /**
+     * Look up the tile of a chunk.
+     *
+     * @param chunk the chunk
+     * @param tile  filled with the cached tile on a hit
+     * @return true if the chunk is unchanged and tile was filled
+     */
+    public boolean lookup(Chunk chunk, int[] tile) {
+        long modified = chunk.getModified();
+        long length = chunk.getStoredLength();
+        while (this.hasEntry && this.orientation.compare(this.entryX, this.entryZ, chunk.getX(), chunk.getZ()) < 0) {
+            this.skipTile();
+            this.readEntry();
+        }
+        boolean hit = false;
+        long hash;
+        if (this.hasEntry && this.entryX == chunk.getX() && this.entryZ == chunk.getZ()) {
+            if (modified == this.entryModified && length == this.entryLength) {
+                hash = this.entryHash;
+                hit = true;
+            }
+            else {
+                hash = chunk.getContentHash();
+                hit = length == this.entryLength && hash == this.entryHash;
+            }
+            if (hit) {
+                hit = this.readTile(tile);
+            }
+            else {
+                this.skipTile();
+            }
+            this.readEntry();
+        }
+        else {
+            hash = chunk.getContentHash();
+        }
+        this.pending.add(new long[]{modified, length, hash});
+        if (hit) {
+            this.hits++;
+        }
+        else {
+            this.misses++;
+        }
+        return hit;
+    }
+
+    /**
+     * Write the tile of the chunk looked up least recently to the new cache.
+     *
+     * @param chunk the chunk
+     * @param tile  its tile, or null if it could not be rendered and should not be cached
+     * @throws IOException on write errors
+     */
+    public void store(Chunk chunk, int[] tile) throws IOException {
+        long[] stat = this.pending.remove();
+        if (tile == null) {
+            return;
+        }
+        this.out.writeInt(chunk.getX());
+        this.out.writeInt(chunk.getZ());
+        this.out.writeLong(stat[0]);
+        this.out.writeLong(stat[1]);
+        this.out.writeLong(stat[2]);
+        ByteBuffer.wrap(this.tileBytes).asIntBuffer().put(tile);
+        this.out.write(this.tileBytes);
+    }
+
+    /**
+     * Replace the old cache with the new one in one atomic move, so that a crash leaves either of them in place.
+     *
+     * @throws IOException if the new cache cannot be written or moved into place
+     */
+    public void commit() throws IOException {
+        this.closeInput();
+        DataOutputStream o = this.out;
+        this.out = null;
+        o.close();
+        Files.move(this.newFile.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Discard the new cache, keeping the old one. Does nothing after {@link #commit()}.
+     */
+    public void close() {
+        this.closeInput();
+        if (this.out != null) {
+            try {
+                this.out.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.out = null;
+            this.newFile.delete();
+        }
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Read the header of the next entry. A damaged cache ends at the damage.
+     */
+    private void readEntry() {
+        this.hasEntry = false;
+        if (this.in == null) {
+            return;
+        }
+        try {
+            this.entryX = this.in.readInt();
+            this.entryZ = this.in.readInt();
+            this.entryModified = this.in.readLong();
+            this.entryLength = this.in.readLong();
+            this.entryHash = this.in.readLong();
+            this.hasEntry = true;
+        }
+        catch (IOException e) {
+            // EOF at the end of the file
+            this.closeInput();
+        }
+    }
+
+    private boolean readTile(int[] tile) {
+        try {
+            this.in.readFully(this.tileBytes);
+            ByteBuffer.wrap(this.tileBytes).asIntBuffer().get(tile);
+            return true;
+        }
+        catch (IOException e) {
+            this.closeInput();
+            return false;
+        }
+    }
+
+    private void skipTile() {
+        try {
+            this.in.readFully(this.tileBytes);
+        }
+        catch (IOException e) {
+            this.closeInput();
+        }
+    }
+
+    private void closeInput() {
+        this.hasEntry = false;
+        if (this.in != null) {
+            try {
+                this.in.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.in = null;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Where the time and memory of a render went, stage by stage, and how much data it read.
+ * <p>
+ * Stages that run on the render threads (inflate, parse and render) are summed over the threads, so they can add up
+ * to more than the wall time. Allocation is counted on the thread running a stage, where the JVM can tell; the
+ * directory scan's own threads are not counted. Streaming outputs encode as tiles are composited, so their encoding
+ * is part of the composite stage.
+ */
+public final class RenderStats {
+    public enum Stage {
+        /**
+         * Listing the chunks of the world.
+         */
+        SCAN,
+        /**
+         * Creating the output and opening the render cache.
+         */
+        SETUP,
+        /**
+         * Sorting the chunks into render order.
+         */
+        SORT,
+        /**
+         * Reading and decompressing chunk data.
+         */
+        INFLATE,
+        /**
+         * Parsing chunk NBT and decoding sections.
+         */
+        PARSE,
+        /**
+         * Drawing loaded chunks into tiles.
+         */
+        RENDER,
+        /**
+         * Looking up tiles in the render cache and storing rendered tiles in it.
+         */
+        CACHE,
+        /**
+         * Waiting for the next tile to be rendered.
+         */
+        WAIT,
+        /**
+         * Copying tiles onto the output.
+         */
+        COMPOSITE,
+        /**
+         * Finishing and writing the output.
+         */
+        ENCODE
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = isAllocationSupported();
+
+    private final long[] stageNanos = new long[Stage.values().length];
+    private final long[] stageAllocated = new long[Stage.values().length];
+    private final long startNanos = System.nanoTime();
+    private long endNanos;
+    private int chunksRendered;
+    private int chunksFailed;
+    private int chunksCached;
+    private long bytesRead;
+    private long bytesInflated;
+    private int[] decodeMicros = new int[1024];
+
+    /**
+     * Get the number of bytes the current thread has allocated so far.
+     *
+     * @return the number of bytes, or 0 if the JVM cannot tell
+     */
+    public static long getAllocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static boolean isAllocationSupported() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        return threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Add the time and memory the current thread spent on a stage since the given start.
+     *
+     * @param stage          the stage
+     * @param startNanos     System.nanoTime() at the start
+     * @param startAllocated {@link #getAllocatedBytes()} at the start
+     */
+    public void add(Stage stage, long startNanos, long startAllocated) {
+        long nanos = System.nanoTime() - startNanos;
+        long allocated = getAllocatedBytes() - startAllocated;
+        synchronized (this) {
+            this.stageNanos[stage.ordinal()] += nanos;
+            this.stageAllocated[stage.ordinal()] += allocated;
+        }
+    }
+
+    /**
+     * Add a chunk rendered on the current thread.
+     *
+     * @param load      what loading the chunk cost, counted since the counters were reset before rendering it
+     * @param nanos     the time taken to load and render the chunk
+     * @param allocated the bytes allocated loading and rendering the chunk
+     * @param ok        false if the chunk could not be rendered; its decode time is not sampled, as loading it may
+     *                  have stopped anywhere
+     */
+    synchronized void addChunk(LoadCounters load, long nanos, long allocated, boolean ok) {
+        if (ok) {
+            this.chunksRendered++;
+            if (this.chunksRendered > this.decodeMicros.length) {
+                this.decodeMicros = Arrays.copyOf(this.decodeMicros, this.decodeMicros.length * 2);
+            }
+            this.decodeMicros[this.chunksRendered - 1] =
+                    (int) Math.min((load.inflateNanos + load.parseNanos) / 1000, Integer.MAX_VALUE);
+        }
+        else {
+            this.chunksFailed++;
+        }
+        this.bytesRead += load.bytesRead;
+        this.bytesInflated += load.bytesInflated;
+        this.stageNanos[Stage.INFLATE.ordinal()] += load.inflateNanos;
+        this.stageAllocated[Stage.INFLATE.ordinal()] += load.inflateAllocated;
+        this.stageNanos[Stage.PARSE.ordinal()] += load.parseNanos;
+        this.stageAllocated[Stage.PARSE.ordinal()] += load.parseAllocated;
+        this.stageNanos[Stage.RENDER.ordinal()] += nanos - load.inflateNanos - load.parseNanos;
+        this.stageAllocated[Stage.RENDER.ordinal()] += allocated - load.inflateAllocated - load.parseAllocated;
+    }
+
+    /**
+     * Count a chunk whose tile came from the render cache.
+     */
+    synchronized void addCachedChunk() {
+        this.chunksCached++;
+    }
+
+    /**
+     * Mark the end of the run.
+     */
+    synchronized void finish() {
+        this.endNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the wall time of the run so far, or of the whole run once it has ended
+     */
+    public synchronized long getWallNanos() {
+        return (this.endNanos != 0 ? this.endNanos : System.nanoTime()) - this.startNanos;
+    }
+
+    /**
+     * @param stage the stage
+     * @return the time spent on the stage
+     */
+    public synchronized long getNanos(Stage stage) {
+        return this.stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * @param stage the stage
+     * @return the bytes allocated by the stage, 0 if the JVM cannot tell
+     */
+    public synchronized long getAllocatedBytes(Stage stage) {
+        return this.stageAllocated[stage.ordinal()];
+    }
+
+    /**
+     * @return the number of chunks rendered, not counting those that failed or came from the render cache
+     */
+    public synchronized int getChunksRendered() {
+        return this.chunksRendered;
+    }
+
+    /**
+     * @return the number of chunks that could not be rendered
+     */
+    public synchronized int getChunksFailed() {
+        return this.chunksFailed;
+    }
+
+    /**
+     * @return the number of chunks whose tiles came from the render cache
+     */
+    public synchronized int getChunksCached() {
+        return this.chunksCached;
+    }
+
+    /**
+     * @return the number of compressed bytes read
+     */
+    public synchronized long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    /**
+     * @return the number of bytes the chunk data inflated to
+     */
+    public synchronized long getBytesInflated() {
+        return this.bytesInflated;
+    }
+
+    /**
+     * Get a percentile of the time taken to inflate and parse a chunk, over the chunks that were rendered.
+     *
+     * @param percentile the percentile, 0 to 100
+     * @return the time in microseconds, by nearest rank; 0 if no chunk was rendered
+     */
+    public synchronized int getDecodeMicros(double percentile) {
+        int count = this.chunksRendered;
+        if (count == 0) {
+            return 0;
+        }
+        int[] sorted = Arrays.copyOf(this.decodeMicros, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Write the statistics as name=value lines, one per statistic, times in milliseconds.
+     *
+     * @param out the writer to write to
+     */
+    public synchronized void write(PrintWriter out) {
+        long wallNanos = getWallNanos();
+        int chunks = this.chunksRendered + this.chunksFailed + this.chunksCached;
+        out.println("wall.ms=" + toMillis(wallNanos));
+        out.println("chunks=" + chunks);
+        out.println("chunks.rendered=" + this.chunksRendered);
+        out.println("chunks.failed=" + this.chunksFailed);
+        out.println("chunks.cached=" + this.chunksCached);
+        out.println("chunks.per.second=" + String.format(Locale.ROOT, "%.1f", chunks * 1e9 / Math.max(wallNanos, 1)));
+        out.println("bytes.read=" + this.bytesRead);
+        out.println("bytes.inflated=" + this.bytesInflated);
+        out.println("decode.p50.us=" + getDecodeMicros(50));
+        out.println("decode.p99.us=" + getDecodeMicros(99));
+        out.println("allocation.counted=" + ALLOCATION_SUPPORTED);
+        for (Stage stage : Stage.values()) {
+            String name = "stage." + stage.name().toLowerCase(Locale.ROOT);
+            out.println(name + ".ms=" + toMillis(this.stageNanos[stage.ordinal()]));
+            out.println(name + ".allocated.bytes=" + this.stageAllocated[stage.ordinal()]);
+        }
+        out.flush();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import com.loumz.mcmapper.png.PngWriter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Streams the map to a PNG file band by band. A band is one row of tiles; it is encoded and dropped as soon as
+ * its last tile arrives, so memory use is proportional to the bands in flight instead of the whole map.
+ */
+public class StreamingPngMapOutput extends MapOutput {
+    private final OutputStream stream;
+    private final PngWriter png;
+    private final int width;
+    // number of tiles still expected in each band
+    private final int[] missingTiles;
+    private final int[][] bands;
+    private final ArrayList<int[]> freeBands = new ArrayList<int[]>();
+    private int nextBand;
+
+    /**
+     * @param file         the PNG file to write
+     * @param tilesWide    width of the map in tiles
+     * @param tilesPerRow  number of tiles that will be written to each band; its length is the map height in tiles
+     * @param footerHeight height of the footer below the map
+     * @param compressionLevel deflate level, 0-9 or Deflater.DEFAULT_COMPRESSION
+     * @throws IOException if the file cannot be created
+     */
+    public StreamingPngMapOutput(File file, int tilesWide, int[] tilesPerRow, int footerHeight, int compressionLevel)
+            throws IOException {
+        this.width = 16 * tilesWide;
+        this.missingTiles = tilesPerRow.clone();
+        this.bands = new int[tilesPerRow.length][];
+        this.stream = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        try {
+            this.png = new PngWriter(this.stream, this.width, 16 * tilesPerRow.length + footerHeight,
+                    compressionLevel);
+            this.writeCompleteBands();
+        }
+        catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void writeTile(int tileX, int tileY, int[] tile) throws IOException {
+        if (tileY < this.nextBand || this.missingTiles[tileY] <= 0) {
+            throw new IllegalStateException("Unexpected tile " + tileX + ", " + tileY);
+        }
+        int[] band = this.bands[tileY];
+        if (band == null) {
+            band = this.takeBand();
+            this.bands[tileY] = band;
+        }
+        int offset = tileX * 16;
+        for (int row = 0; row < 16; row++) {
+            System.arraycopy(tile, row * 16, band, offset + row * this.width, 16);
+        }
+        this.missingTiles[tileY]--;
+        this.writeCompleteBands();
+    }
+
+    @Override
+    public void finish(BufferedImage footer) throws IOException {
+        try {
+            if (this.nextBand < this.bands.length) {
+                throw new IOException("Band " + this.nextBand + " is missing " + this.missingTiles[this.nextBand] + " tiles");
+            }
+            if (footer != null) {
+                int[] pixels = ((DataBufferInt) footer.getRaster().getDataBuffer()).getData();
+                for (int row = 0; row < footer.getHeight(); row++) {
+                    this.png.writeRow(pixels, row * this.width);
+                }
+            }
+            this.png.finish();
+        }
+        finally {
+            this.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.stream.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Encode the bands at the top that have all their tiles.
+     */
+    private void writeCompleteBands() throws IOException {
+        while (this.nextBand < this.bands.length && this.missingTiles[this.nextBand] == 0) {
+            int[] band = this.bands[this.nextBand];
+            if (band == null) {
+                band = this.takeBand();
+            }
+            for (int row = 0; row < 16; row++) {
+                this.png.writeRow(band, row * this.width);
+            }
+            this.bands[this.nextBand] = null;
+            this.freeBands.add(band);
+            this.nextBand++;
+        }
+    }
+
+    private int[] takeBand() {
+        if (this.freeBands.isEmpty()) {
+            return new int[16 * this.width];
+        }
+        int[] band = this.freeBands.remove(this.freeBands.size() - 1);
+        Arrays.fill(band, 0);
+        return band;
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import com.loumz.mcmapper.nbt.NbtItem;
+import com.loumz.mcmapper.nbt.NbtWriter;
+
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes alpha worlds of any size for tests and benchmarks: gzip compressed c.x.z.dat files in the base 36
+ * directory tree, plus a level.dat. The terrain is smooth noise around a base height, with water filling the low
+ * ground up to the water level, sand under the water, lava pools and torches scattered over the surface.
+ * <p/>
+ * Every block depends only on the seed, the settings and its coordinates, so a world is the same whatever the
+ * thread count and a chunk is the same whichever area it is generated as part of.
+ * <p/>
+ * Run the main method to write a world from the command line.
+ */
+public class SyntheticWorld {
+    private static final byte STONE = 1;
+    private static final byte GRASS = 2;
+    private static final byte DIRT = 3;
+    private static final byte WATER = 9;
+    private static final byte LAVA = 11;
+    private static final byte SAND = 12;
+    private static final byte TORCH = 50;
+
+    private static final long SALT_LAVA = 1;
+    private static final long SALT_TORCH = 2;
+    private static final long SALT_LIGHT = 3;
+
+    private long seed = 42;
+    private int baseHeight = 60;
+    private int heightVariation = 12;
+    private int featureSize = 48;
+    private int waterLevel = 58;
+    private double lavaChance = 0.002;
+    private double torchChance = 0.01;
+    private int blockLightNoise = 0;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getBaseHeight() {
+        return baseHeight;
+    }
+
+    /**
+     * @param baseHeight the average height of the ground, 1 to 127
+     */
+    public void setBaseHeight(int baseHeight) {
+        this.baseHeight = baseHeight;
+    }
+
+    public int getHeightVariation() {
+        return heightVariation;
+    }
+
+    /**
+     * @param heightVariation how far the ground rises above and sinks below the base height, at most
+     */
+    public void setHeightVariation(int heightVariation) {
+        this.heightVariation = heightVariation;
+    }
+
+    public int getFeatureSize() {
+        return featureSize;
+    }
+
+    /**
+     * @param featureSize the distance in blocks between the hills of the coarsest noise, at least 2
+     */
+    public void setFeatureSize(int featureSize) {
+        this.featureSize = featureSize;
+    }
+
+    public int getWaterLevel() {
+        return waterLevel;
+    }
+
+    /**
+     * @param waterLevel the y of the top water blocks; 0 for no water
+     */
+    public void setWaterLevel(int waterLevel) {
+        this.waterLevel = waterLevel;
+    }
+
+    public double getLavaChance() {
+        return lavaChance;
+    }
+
+    /**
+     * @param lavaChance the chance of a dry column having a lava pool block at the surface, 0 to 1
+     */
+    public void setLavaChance(double lavaChance) {
+        this.lavaChance = lavaChance;
+    }
+
+    public double getTorchChance() {
+        return torchChance;
+    }
+
+    /**
+     * @param torchChance the chance of a dry column having a torch on top, 0 to 1
+     */
+    public void setTorchChance(double torchChance) {
+        this.torchChance = torchChance;
+    }
+
+    public int getBlockLightNoise() {
+        return blockLightNoise;
+    }
+
+    /**
+     * @param blockLightNoise the maximum of the random block light added to every block, 0 to 15; 0 leaves only the
+     *                        light of lava and torches
+     */
+    public void setBlockLightNoise(int blockLightNoise) {
+        this.blockLightNoise = blockLightNoise;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount the number of threads generating and compressing chunks
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Write a square world of side x side chunks around the origin.
+     *
+     * @param worldDir the world directory, created if needed
+     * @param side     the number of chunks along each side
+     * @return the world's level.dat
+     * @throws IOException if the world cannot be written
+     */
+    public File generate(File worldDir, int side) throws IOException {
+        return this.generate(worldDir, new Rectangle(-side / 2, -side / 2, side, side));
+    }
+
+    /**
+     * Write the chunks of an area, and a level.dat if there is none. Existing chunk files are overwritten.
+     *
+     * @param worldDir the world directory, created if needed
+     * @param area     the chunks to write, x and y being chunk x and z
+     * @return the world's level.dat
+     * @throws IOException if the world cannot be written
+     */
+    public File generate(final File worldDir, final Rectangle area) throws IOException {
+        if (!worldDir.isDirectory() && !worldDir.mkdirs()) {
+            throw new IOException("Cannot create " + worldDir);
+        }
+        File levelFile = new File(worldDir, "level.dat");
+        if (!levelFile.exists()) {
+            this.writeLevel(levelFile);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.threadCount));
+        try {
+            // one task per row of chunks; each task creates the directories it needs
+            ArrayList<Future<Void>> rows = new ArrayList<Future<Void>>(area.width);
+            for (int i = 0; i < area.width; i++) {
+                final int x = area.x + i;
+                rows.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        StringBuilder path = new StringBuilder();
+                        for (int z = area.y; z < area.y + area.height; z++) {
+                            File f = ChunkIndex.getChunkFile(worldDir, x, z, path);
+                            File dir = f.getParentFile();
+                            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                                throw new IOException("Cannot create " + dir);
+                            }
+                            writeGzip(f, SyntheticWorld.this.createChunk(x, z));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> row : rows) {
+                row.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating " + worldDir);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return levelFile;
+    }
+
+    /**
+     * Create the uncompressed NBT data of a chunk.
+     *
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     * @return the data
+     */
+    public byte[] createChunk(int chunkX, int chunkZ) {
+        byte[] blocks = new byte[16 * 16 * 128];
+        byte[] skyLight = new byte[16 * 16 * 64];
+        byte[] blockLight = new byte[16 * 16 * 64];
+        byte[] heightMap = new byte[16 * 16];
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                this.createColumn(chunkX * 16 + x, chunkZ * 16 + z, blocks, skyLight, blockLight,
+                        x * 128 * 16 + z * 128);
+                int top = 127;
+                while (top > 0 && blocks[x * 128 * 16 + z * 128 + top] == 0) {
+                    top--;
+                }
+                // indexed z * 16 + x, as in real chunks
+                heightMap[z * 16 + x] = (byte) (top + 1);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(90 * 1024);
+        NbtWriter writer = new NbtWriter(bytes);
+        try {
+            writer.beginCompound("")
+                    .beginCompound("Level")
+                    .writeByteArray("Blocks", blocks)
+                    .writeByteArray("Data", new byte[16 * 16 * 64])
+                    .writeByteArray("SkyLight", skyLight)
+                    .writeByteArray("BlockLight", blockLight)
+                    .writeByteArray("HeightMap", heightMap)
+                    .beginList("Entities", NbtItem.TAG_COMPOUND, 0)
+                    .beginList("TileEntities", NbtItem.TAG_COMPOUND, 0)
+                    .writeLong("LastUpdate", 0)
+                    .writeInt("xPos", chunkX)
+                    .writeInt("zPos", chunkZ)
+                    .writeByte("TerrainPopulated", 1)
+                    .endCompound()
+                    .endCompound()
+                    .close();
+        }
+        catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Get the height of the ground, before water, lava and torches.
+     *
+     * @param x block x
+     * @param z block z
+     * @return the y of the topmost ground block
+     */
+    public int getGroundHeight(int x, int z) {
+        double noise = this.noise(x, z, this.featureSize) * 0.75
+                + this.noise(x, z, Math.max(2, this.featureSize / 4)) * 0.25;
+        int height = this.baseHeight + (int) Math.round(noise * this.heightVariation);
+        return Math.max(1, Math.min(120, height));
+    }
+
+    private void createColumn(int x, int z, byte[] blocks, byte[] skyLight, byte[] blockLight, int base) {
+        int ground = this.getGroundHeight(x, z);
+        boolean wet = ground < this.waterLevel;
+        for (int y = 0; y <= ground; y++) {
+            byte b = y < ground - 3 ? STONE : y < ground ? DIRT : GRASS;
+            if (wet && y >= ground - 2) {
+                b = SAND;
+            }
+            blocks[base + y] = b;
+        }
+        int top = ground;
+        if (wet) {
+            for (int y = ground + 1; y <= this.waterLevel; y++) {
+                blocks[base + y] = WATER;
+            }
+            top = this.waterLevel;
+        }
+        int lightY = -1;
+        int lightLevel = 0;
+        if (!wet && this.chance(x, z, SALT_LAVA) < this.lavaChance) {
+            blocks[base + ground] = LAVA;
+            lightY = ground;
+            lightLevel = 15;
+        }
+        else if (!wet && this.chance(x, z, SALT_TORCH) < this.torchChance) {
+            blocks[base + ground + 1] = TORCH;
+            top = ground + 1;
+            lightY = ground + 1;
+            lightLevel = 14;
+        }
+        long lightHash = this.hash(x, z, SALT_LIGHT);
+        for (int y = 0; y < 128; y++) {
+            int sky;
+            if (y > top) {
+                sky = 15;
+            }
+            else if (blocks[base + y] == WATER) {
+                // water dims the sky light by 3 per block
+                sky = Math.max(0, 15 - 3 * (top - y + 1));
+            }
+            else {
+                sky = 0;
+            }
+            int light = lightY >= 0 ? Math.max(0, lightLevel - Math.abs(y - lightY)) : 0;
+            if (this.blockLightNoise > 0) {
+                lightHash = mix(lightHash + y);
+                light = Math.max(light, (int) ((lightHash >>> 1) % (this.blockLightNoise + 1)));
+            }
+            setNibble(skyLight, base + y, sky);
+            setNibble(blockLight, base + y, light);
+        }
+    }
+
+    /**
+     * Smooth noise from -1 to 1: random values at the corners of a grid of the given size, interpolated between.
+     */
+    private double noise(int x, int z, int size) {
+        int gx = floorDiv(x, size);
+        int gz = floorDiv(z, size);
+        double fx = smooth((x - gx * size) / (double) size);
+        double fz = smooth((z - gz * size) / (double) size);
+        double v00 = this.corner(gx, gz, size);
+        double v10 = this.corner(gx + 1, gz, size);
+        double v01 = this.corner(gx, gz + 1, size);
+        double v11 = this.corner(gx + 1, gz + 1, size);
+        double v0 = v00 + (v10 - v00) * fx;
+        double v1 = v01 + (v11 - v01) * fx;
+        return v0 + (v1 - v0) * fz;
+    }
+
+    private static int floorDiv(int a, int b) {
+        return a >= 0 ? a / b : -((-a + b - 1) / b);
+    }
+
+    private double corner(int gx, int gz, int size) {
+        return (this.hash(gx, gz, size + 16) >>> 11) / (double) (1L << 52) - 1;
+    }
+
+    private static double smooth(double t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private double chance(int x, int z, long salt) {
+        return (this.hash(x, z, salt) >>> 11) / (double) (1L << 53);
+    }
+
+    private long hash(int x, int z, long salt) {
+        return mix(this.seed ^ mix(ChunkIndex.pack(x, z) ^ salt * 0x9e3779b97f4a7c15L));
+    }
+
+    /**
+     * The SplitMix64 finalizer: a cheap hash whose output bits all depend on every input bit.
+     */
+    private static long mix(long v) {
+        v = (v ^ (v >>> 30)) * 0xbf58476d1ce4e5b9L;
+        v = (v ^ (v >>> 27)) * 0x94d049bb133111ebL;
+        return v ^ (v >>> 31);
+    }
+
+    private static void setNibble(byte[] packed, int index, int value) {
+        // even indexes are in the low nibble
+        packed[index >> 1] |= value << ((index & 1) << 2);
+    }
+
+    private void writeLevel(File levelFile) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtWriter writer = new NbtWriter(bytes);
+        writer.beginCompound("")
+                .beginCompound("Data")
+                .writeLong("RandomSeed", this.seed)
+                .writeInt("SpawnX", 0)
+                .writeInt("SpawnY", this.baseHeight + this.heightVariation + 1)
+                .writeInt("SpawnZ", 0)
+                .writeLong("Time", 0)
+                .writeLong("LastPlayed", 0)
+                .endCompound()
+                .endCompound()
+                .close();
+        writeGzip(levelFile, bytes.toByteArray());
+    }
+
+    private static void writeGzip(File f, byte[] data) throws IOException {
+        OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: SyntheticWorld <world directory> <chunks per side> [seed]");
+            System.exit(2);
+        }
+        SyntheticWorld world = new SyntheticWorld();
+        if (args.length == 3) {
+            world.setSeed(Long.parseLong(args[2]));
+        }
+        long start = System.currentTimeMillis();
+        int side = Integer.parseInt(args[1]);
+        world.generate(new File(args[0]), side);
+        System.out.println("Wrote " + side * side + " chunks in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
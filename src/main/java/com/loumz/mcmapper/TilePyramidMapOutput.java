@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper;
+
+import com.loumz.mcmapper.png.PngWriter;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Writes the map as a slippy-map tile pyramid: TILE_SIZE pixel PNG tiles stored as dir/z/x/y.png. The highest zoom
+ * level has one pixel per block, every level below it is downsampled 2:1 from the one above, and zoom level 0 is a
+ * single tile holding the whole map. Tiles are anchored at the top left of the map; fully transparent tiles are not
+ * written.
+ * <p/>
+ * Like {@link StreamingPngMapOutput}, the full zoom level is assembled one band of tiles at a time. A finished band
+ * is written out and halved into the band of the level below, so memory is a couple of bands per level.
+ */
+public class TilePyramidMapOutput extends MapOutput {
+    public static final int TILE_SIZE = 256;
+    private static final int CHUNKS_PER_TILE = TILE_SIZE / 16;
+
+    /**
+     * The band of one zoom level currently being assembled.
+     */
+    private static final class Level {
+        final int zoom;
+        final int tilesAcross;
+        final int bandCount;
+        final int scanline;
+        int[] band;
+        int bandIndex;
+
+        Level(int zoom, int width, int height) {
+            this.zoom = zoom;
+            this.tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+            this.bandCount = (height + TILE_SIZE - 1) / TILE_SIZE;
+            this.scanline = this.tilesAcross * TILE_SIZE;
+        }
+    }
+
+    private final File directory;
+    private final int compressionLevel;
+    private final int scanline;
+    // levels[z] is zoom level z; the last one gets the chunk tiles
+    private final Level[] levels;
+    // number of chunk tiles still expected in each band of the highest zoom level
+    private final int[] missingTiles;
+    private final int[][] bands;
+    private final ArrayList<int[]> freeBands = new ArrayList<int[]>();
+    private int nextBand;
+
+    /**
+     * @param directory   the directory to write the zoom level directories to
+     * @param tilesWide   width of the map in chunk tiles
+     * @param tilesPerRow number of chunk tiles that will be written to each row; its length is the map height
+     * @param compressionLevel deflate level of the tile images, 0-9 or Deflater.DEFAULT_COMPRESSION
+     */
+    public TilePyramidMapOutput(File directory, int tilesWide, int[] tilesPerRow, int compressionLevel) {
+        this.directory = directory;
+        this.compressionLevel = compressionLevel;
+        int width = 16 * tilesWide;
+        int height = 16 * tilesPerRow.length;
+        int maxZoom = 0;
+        while ((TILE_SIZE << maxZoom) < Math.max(width, height)) {
+            maxZoom++;
+        }
+        this.levels = new Level[maxZoom + 1];
+        for (int zoom = maxZoom; zoom >= 0; zoom--) {
+            this.levels[zoom] = new Level(zoom, width, height);
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+        Level top = this.levels[maxZoom];
+        this.scanline = top.scanline;
+        this.bands = new int[top.bandCount][];
+        this.missingTiles = new int[top.bandCount];
+        for (int row = 0; row < tilesPerRow.length; row++) {
+            this.missingTiles[row / CHUNKS_PER_TILE] += tilesPerRow[row];
+        }
+    }
+
+    @Override
+    public void writeTile(int tileX, int tileY, int[] tile) throws IOException {
+        int bandIndex = tileY / CHUNKS_PER_TILE;
+        if (bandIndex < this.nextBand || this.missingTiles[bandIndex] <= 0) {
+            throw new IllegalStateException("Unexpected tile " + tileX + ", " + tileY);
+        }
+        int[] band = this.bands[bandIndex];
+        if (band == null) {
+            band = this.takeBand();
+            this.bands[bandIndex] = band;
+        }
+        int offset = (tileY % CHUNKS_PER_TILE) * 16 * this.scanline + tileX * 16;
+        for (int row = 0; row < 16; row++) {
+            System.arraycopy(tile, row * 16, band, offset + row * this.scanline, 16);
+        }
+        this.missingTiles[bandIndex]--;
+        this.writeCompleteBands();
+    }
+
+    /**
+     * Write the bands still pending. The footer has no place in a tile pyramid and is ignored.
+     *
+     * @param footer ignored
+     * @throws IOException on write errors
+     */
+    @Override
+    public void finish(BufferedImage footer) throws IOException {
+        this.writeCompleteBands();
+        if (this.nextBand < this.bands.length) {
+            throw new IOException("Band " + this.nextBand + " is missing " + this.missingTiles[this.nextBand] + " tiles");
+        }
+    }
+
+    /**
+     * Flush the bands of the highest zoom level that have all their chunk tiles, in order.
+     */
+    private void writeCompleteBands() throws IOException {
+        Level top = this.levels[this.levels.length - 1];
+        while (this.nextBand < this.bands.length && this.missingTiles[this.nextBand] == 0) {
+            int[] band = this.bands[this.nextBand];
+            if (band == null) {
+                band = this.takeBand();
+            }
+            top.band = band;
+            this.flushBand(top);
+            this.bands[this.nextBand] = null;
+            this.freeBands.add(band);
+            this.nextBand++;
+        }
+    }
+
+    /**
+     * Write the tiles of the level's current band, then halve it into the level below. The level below is flushed
+     * in turn once both of its halves are in or this was the last band.
+     */
+    private void flushBand(Level level) throws IOException {
+        for (int tileX = 0; tileX < level.tilesAcross; tileX++) {
+            this.flushTile(level, tileX);
+        }
+        if (level.zoom > 0) {
+            Level parent = this.levels[level.zoom - 1];
+            if (parent.band == null) {
+                parent.band = new int[TILE_SIZE * parent.scanline];
+            }
+            downsample(level.band, level.scanline, parent.band, parent.scanline,
+                    (level.bandIndex % 2) * (TILE_SIZE / 2) * parent.scanline);
+            if (level.bandIndex % 2 == 1 || level.bandIndex == level.bandCount - 1) {
+                this.flushBand(parent);
+                Arrays.fill(parent.band, 0);
+            }
+        }
+        level.bandIndex++;
+    }
+
+    /**
+     * Halve a band in both directions by averaging each 2x2 block. Averaging premultiplied pixels keeps
+     * transparent pixels from bleeding their color.
+     */
+    private static void downsample(int[] src, int srcScanline, int[] dst, int dstScanline, int dstOffset) {
+        for (int y = 0; y < TILE_SIZE / 2; y++) {
+            int s = 2 * y * srcScanline;
+            int d = dstOffset + y * dstScanline;
+            for (int x = 0; x < srcScanline / 2; x++, s += 2, d++) {
+                int p0 = src[s];
+                int p1 = src[s + 1];
+                int p2 = src[s + srcScanline];
+                int p3 = src[s + srcScanline + 1];
+                if ((p0 | p1 | p2 | p3) == 0) {
+                    continue;
+                }
+                int argb = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int sum = ((p0 >>> shift) & 0xff) + ((p1 >>> shift) & 0xff)
+                            + ((p2 >>> shift) & 0xff) + ((p3 >>> shift) & 0xff);
+                    argb |= ((sum + 2) >> 2) << shift;
+                }
+                dst[d] = argb;
+            }
+        }
+    }
+
+    /**
+     * Write one tile of the level's current band, unless it is fully transparent.
+     */
+    private void flushTile(Level level, int tileX) throws IOException {
+        int offset = tileX * TILE_SIZE;
+        boolean empty = true;
+        for (int y = 0; y < TILE_SIZE && empty; y++) {
+            int rowOffset = offset + y * level.scanline;
+            for (int x = 0; x < TILE_SIZE; x++) {
+                if (level.band[rowOffset + x] != 0) {
+                    empty = false;
+                    break;
+                }
+            }
+        }
+        if (empty) {
+            return;
+        }
+        File dir = new File(this.directory, level.zoom + File.separator + tileX);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File file = new File(dir, level.bandIndex + ".png");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 16 * 1024);
+        try {
+            PngWriter png = new PngWriter(out, TILE_SIZE, TILE_SIZE, this.compressionLevel);
+            for (int y = 0; y < TILE_SIZE; y++) {
+                png.writeRow(level.band, offset + y * level.scanline);
+            }
+            png.finish();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private int[] takeBand() {
+        if (this.freeBands.isEmpty()) {
+            return new int[TILE_SIZE * this.scanline];
+        }
+        int[] band = this.freeBands.remove(this.freeBands.size() - 1);
+        Arrays.fill(band, 0);
+        return band;
+    }
+}
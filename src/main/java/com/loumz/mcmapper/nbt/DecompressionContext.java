@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper.nbt;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Per-thread gzip and zlib decompression state: one Inflater and reusable compressed and decompressed buffers, so loading
+ * a chunk does not allocate a native Inflater and fresh stream buffers every time.
+ * <p/>
+ * The decompressed data stays valid only until the next call on the same context. Threads that are done with their
+ * context call {@link #release()}, which frees the Inflater's native memory at once instead of whenever the
+ * finalizer gets to it.
+ */
+public final class DecompressionContext {
+    /**
+     * Room for the block, data and light arrays of an alpha chunk plus the surrounding tags.
+     */
+    private static final int INITIAL_OUTPUT_SIZE = 96 * 1024;
+    private static final int INITIAL_INPUT_SIZE = 16 * 1024;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int ZLIB_FDICT = 0x20;
+
+    private static final ThreadLocal<DecompressionContext> CONTEXTS = new ThreadLocal<DecompressionContext>();
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final Adler32 adler = new Adler32();
+    private byte[] input = new byte[INITIAL_INPUT_SIZE];
+    private byte[] output = new byte[INITIAL_OUTPUT_SIZE];
+    private int compressedLength;
+
+    /**
+     * @return the context of the current thread
+     */
+    public static DecompressionContext get() {
+        DecompressionContext context = CONTEXTS.get();
+        if (context == null) {
+            context = new DecompressionContext();
+            CONTEXTS.set(context);
+        }
+        return context;
+    }
+
+    /**
+     * End the current thread's context, if it has one. The next {@link #get()} on the thread creates a new one.
+     */
+    public static void release() {
+        DecompressionContext context = CONTEXTS.get();
+        if (context != null) {
+            CONTEXTS.remove();
+            context.inflater.end();
+        }
+    }
+
+    /**
+     * Read and decompress a gzip file.
+     *
+     * @param file the file to read
+     * @return the number of decompressed bytes, available from {@link #getOutput()}
+     * @throws IOException if the file cannot be read or is not valid gzip data
+     */
+    public int inflateGzip(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        int length;
+        try {
+            long fileLength = raf.length();
+            if (fileLength > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            length = (int) fileLength;
+            if (this.input.length < length) {
+                this.input = new byte[Math.max(length, this.input.length * 2)];
+            }
+            raf.readFully(this.input, 0, length);
+        }
+        finally {
+            raf.close();
+        }
+        return this.inflateGzip(this.input, 0, length);
+    }
+
+    /**
+     * Decompress gzip data.
+     *
+     * @param data   the compressed data
+     * @param offset offset of the gzip header in data
+     * @param length length of the compressed data
+     * @return the number of decompressed bytes, available from {@link #getOutput()}
+     * @throws IOException if data is not valid gzip data
+     */
+    public int inflateGzip(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        if (length < 18) {
+            throw new EOFException("Truncated gzip data");
+        }
+        if (readUShortLE(data, offset) != GZIP_MAGIC || data[offset + 2] != 8) {
+            throw new ZipException("Not in gzip format");
+        }
+        int flags = data[offset + 3];
+        int pos = offset + 10;
+        if ((flags & FEXTRA) != 0) {
+            pos += 2 + readUShortLE(data, pos);
+        }
+        if ((flags & FNAME) != 0) {
+            pos = skipZeroTerminated(data, pos, end);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            pos = skipZeroTerminated(data, pos, end);
+        }
+        if ((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        if (pos > end - 8) {
+            throw new EOFException("Truncated gzip data");
+        }
+        this.compressedLength = length;
+        long expectedCrc = readUIntLE(data, end - 8);
+        long expectedSize = readUIntLE(data, end - 4);
+        if (expectedSize > Integer.MAX_VALUE) {
+            throw new ZipException("gzip data too large");
+        }
+        int outputLength = this.inflateRaw(data, pos, end - pos, (int) expectedSize);
+        this.crc.reset();
+        this.crc.update(this.output, 0, outputLength);
+        if (this.crc.getValue() != expectedCrc || (outputLength & 0xffffffffL) != expectedSize) {
+            throw new ZipException("Corrupt gzip data");
+        }
+        return outputLength;
+    }
+
+    /**
+     * Decompress zlib data, as used by region files.
+     *
+     * @param data   the compressed data
+     * @param offset offset of the zlib header in data
+     * @param length length of the compressed data
+     * @return the number of decompressed bytes, available from {@link #getOutput()}
+     * @throws IOException if data is not valid zlib data
+     */
+    public int inflateZlib(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        if (length < 6) {
+            throw new EOFException("Truncated zlib data");
+        }
+        int cmf = data[offset] & 0xff;
+        int flg = data[offset + 1] & 0xff;
+        if ((cmf & 0xf) != 8 || ((cmf << 8) | flg) % 31 != 0 || (flg & ZLIB_FDICT) != 0) {
+            throw new ZipException("Not in zlib format");
+        }
+        this.compressedLength = length;
+        int outputLength = this.inflateRaw(data, offset + 2, length - 2, 0);
+        long expectedAdler = ((long) readUShortBE(data, end - 4) << 16) | readUShortBE(data, end - 2);
+        this.adler.reset();
+        this.adler.update(this.output, 0, outputLength);
+        if (this.adler.getValue() != expectedAdler) {
+            throw new ZipException("Corrupt zlib data");
+        }
+        return outputLength;
+    }
+
+    /**
+     * Decompress data straight from a (mapped) buffer. The compressed bytes are copied once into this context's
+     * input buffer, as Inflater only takes arrays.
+     *
+     * @param source buffer holding the compressed data; its position is not used or changed
+     * @param offset index of the compressed data in source
+     * @param length length of the compressed data
+     * @param gzip   true for gzip data, false for zlib
+     * @return the number of decompressed bytes, available from {@link #getOutput()}
+     * @throws IOException if the data is not valid
+     */
+    public int inflate(ByteBuffer source, int offset, int length, boolean gzip) throws IOException {
+        if (this.input.length < length) {
+            this.input = new byte[Math.max(length, this.input.length * 2)];
+        }
+        ByteBuffer view = source.duplicate();
+        view.position(offset);
+        view.get(this.input, 0, length);
+        return gzip ? this.inflateGzip(this.input, 0, length) : this.inflateZlib(this.input, 0, length);
+    }
+
+    /**
+     * Inflate a raw deflate stream into the output buffer.
+     *
+     * @param sizeHint expected output size, 0 if unknown
+     * @return the number of decompressed bytes
+     */
+    private int inflateRaw(byte[] data, int offset, int length, int sizeHint) throws IOException {
+        if (this.output.length < sizeHint) {
+            this.output = new byte[Math.max(sizeHint, this.output.length * 2)];
+        }
+
+        this.inflater.reset();
+        // include the trailer, raw inflate may want a byte past the end of the deflate stream
+        this.inflater.setInput(data, offset, length);
+        int outputLength = 0;
+        try {
+            while (!this.inflater.finished()) {
+                if (outputLength == this.output.length) {
+                    // sizes from trailers are only modulo 2^32, don't trust them blindly
+                    byte[] larger = new byte[this.output.length * 2];
+                    System.arraycopy(this.output, 0, larger, 0, outputLength);
+                    this.output = larger;
+                }
+                int n = this.inflater.inflate(this.output, outputLength, this.output.length - outputLength);
+                if (n == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+                    throw new EOFException("Unexpected end of compressed data");
+                }
+                outputLength += n;
+            }
+        }
+        catch (DataFormatException e) {
+            ZipException ze = new ZipException(e.getMessage());
+            ze.initCause(e);
+            throw ze;
+        }
+        return outputLength;
+    }
+
+    /**
+     * @return the buffer holding the data from the last inflate call
+     */
+    public byte[] getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the number of compressed bytes read by the last inflate call
+     */
+    public int getCompressedLength() {
+        return this.compressedLength;
+    }
+
+    private static int skipZeroTerminated(byte[] data, int pos, int end) throws EOFException {
+        while (pos < end && data[pos] != 0) {
+            pos++;
+        }
+        if (pos == end) {
+            throw new EOFException("Truncated gzip header");
+        }
+        return pos + 1;
+    }
+
+    private static int readUShortBE(byte[] data, int pos) {
+        return ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+    }
+
+    private static int readUShortLE(byte[] data, int pos) {
+        return (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8);
+    }
+
+    private static long readUIntLE(byte[] data, int pos) {
+        return (readUShortLE(data, pos) | ((long) readUShortLE(data, pos + 2) << 16)) & 0xffffffffL;
+    }
+}
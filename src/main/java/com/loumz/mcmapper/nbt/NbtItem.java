@@ -34,6 +34,8 @@ public class NbtItem {
     public static final int TAG_STRING = 8;
     public static final int TAG_LIST = 9;
     public static final int TAG_COMPOUND = 10;
+    public static final int TAG_INT_ARRAY = 11;
+    public static final int TAG_LONG_ARRAY = 12;
 
     private String name;
 
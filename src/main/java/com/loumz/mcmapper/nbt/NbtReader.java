@@ -22,14 +22,20 @@
 
 package com.loumz.mcmapper.nbt;
 
-import java.io.DataInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.zip.GZIPInputStream;
 
+/**
+ * Reads NBT data held in a {@link ByteBuffer}, e.g. decompressed chunk data or an uncompressed memory mapped file.
+ * Array tags can be visited as slices of the buffer, without copying them.
+ */
 public class NbtReader {
 
     private static class TagExpectation {
@@ -42,16 +48,61 @@ public class NbtReader {
         }
     }
 
-    private DataInputStream inputStream;
+    private ByteBuffer buffer;
     private ArrayList<TagExpectation> expectedTypeStack;
+    private int unvisitedTags;
+    // number of lists of compounds being read; tags in them are not counted as visited
+    private int listDepth;
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
+    /**
+     * Create a reader over gzip compressed NBT data. The stream is read to the end and closed.
+     *
+     * @param is the compressed data
+     * @throws IOException if the data cannot be read or decompressed
+     */
     public NbtReader(InputStream is) throws IOException {
-        this.inputStream = new DataInputStream(new GZIPInputStream(is));
+        this(ByteBuffer.wrap(readFully(new GZIPInputStream(is))));
+    }
+
+    /**
+     * Create a reader over already decompressed NBT data, e.g. from a {@link DecompressionContext}.
+     *
+     * @param data   the uncompressed data
+     * @param offset offset of the root tag in data
+     * @param length length of the data
+     */
+    public NbtReader(byte[] data, int offset, int length) {
+        this(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Create a reader over uncompressed NBT data. The data is read from the buffer's position to its limit; the
+     * buffer itself is not modified.
+     *
+     * @param buffer the uncompressed data
+     */
+    public NbtReader(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
         this.expectedTypeStack = new ArrayList<TagExpectation>(10);
         this.expectedTypeStack.add(new TagExpectation(-1, 0));
     }
 
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = is.read(chunk)) > 0) {
+                bytes.write(chunk, 0, n);
+            }
+            return bytes.toByteArray();
+        }
+        finally {
+            is.close();
+        }
+    }
+
     private boolean isExpectingNamedTag() {
         return this.getCurrentTagExpectation().type == -1;
     }
@@ -72,18 +123,26 @@ public class NbtReader {
     }
 
     public void close() throws IOException {
-        this.inputStream.close();
+        this.buffer.position(this.buffer.limit());
     }
 
     public NbtItem readNext() throws IOException {
+        try {
+            return this.readNextItem();
+        }
+        catch (BufferUnderflowException e) {
+            throw new EOFException("Truncated NBT data");
+        }
+    }
+
+    private NbtItem readNextItem() throws IOException {
         String name = null;
         int tagType;
         if (this.isExpectingNamedTag()) {
-            tagType = this.inputStream.read();
-            if (tagType < 0) {
-                this.close();
+            if (!this.buffer.hasRemaining()) {
                 return null;
             }
+            tagType = this.readByte();
             if (tagType != NbtItem.TAG_END) {
                 name = this.readString();
             }
@@ -126,13 +185,272 @@ public class NbtReader {
             case NbtItem.TAG_COMPOUND:
                 this.pushTagExpectation(-1, 0);
                 return new NbtCompoundTagItem(name);
+            case NbtItem.TAG_INT_ARRAY:
+                return new NbtIntArrayItem(name, this.readInts(this.readInt()));
+            case NbtItem.TAG_LONG_ARRAY:
+                return new NbtLongArrayItem(name, this.readLongs(this.readInt()));
         }
         return null;
     }
 
-    private double readDouble() throws IOException {
-        return this.inputStream.readDouble();
+    /**
+     * Read the whole stream, handing only the tags selected by paths to the visitor. Everything else is skipped
+     * without creating objects for it. Reading stops as soon as every selected tag has been visited; a list of
+     * compounds counts as visited, together with all paths below it, once all its elements have been read. This
+     * must be called instead of, not together with, {@link #readNext()}.
+     *
+     * @param paths   the tags to visit
+     * @param visitor the visitor receiving the selected tags
+     * @throws IOException on read errors or malformed data
+     */
+    public void accept(NbtTagPaths paths, NbtVisitor visitor) throws IOException {
+        if (!this.buffer.hasRemaining()) {
+            return;
+        }
+        try {
+            int tagType = this.readByte();
+            if (tagType != NbtItem.TAG_COMPOUND) {
+                throw new IOException("Root tag is not a compound but type " + tagType);
+            }
+            this.skipBytes(this.readUnsignedShort());
+            this.unvisitedTags = paths.size();
+            this.listDepth = 0;
+            this.acceptCompound(paths.getRoot(), visitor);
+        }
+        catch (BufferUnderflowException e) {
+            throw new EOFException("Truncated NBT data");
+        }
+    }
+
+    /**
+     * Visit the contents of a compound.
+     *
+     * @return false if all selected tags have been visited and reading should stop.
+     */
+    private boolean acceptCompound(NbtTagPaths.Node node, NbtVisitor visitor) throws IOException {
+        while (true) {
+            int tagType = this.readByte();
+            if (tagType == NbtItem.TAG_END) {
+                return true;
+            }
+            int nameLength = this.readUnsignedShort();
+            int nameOffset = this.buffer.position();
+            this.skipBytes(nameLength);
+            NbtTagPaths.Node child = node.findChild(this.buffer, nameOffset, nameLength);
+            if (child == null) {
+                this.skipPayload(tagType);
+            }
+            else if (child.isLeaf()) {
+                this.acceptPayload(child.id, tagType, visitor);
+                if (this.countVisited(1)) {
+                    return false;
+                }
+            }
+            else if (tagType == NbtItem.TAG_COMPOUND) {
+                if (!this.acceptNestedCompound(child, visitor)) {
+                    return false;
+                }
+                if (child.id >= 0 && this.countVisited(1)) {
+                    return false;
+                }
+            }
+            else if (tagType == NbtItem.TAG_LIST) {
+                int elementType = this.readByte();
+                int count = this.readInt();
+                if (elementType != NbtItem.TAG_COMPOUND) {
+                    this.skipElements(elementType, count);
+                    continue;
+                }
+                this.listDepth++;
+                for (int i = 0; i < count; i++) {
+                    this.acceptNestedCompound(child, visitor);
+                }
+                this.listDepth--;
+                if (this.countVisited(child.pathCount)) {
+                    return false;
+                }
+            }
+            else {
+                this.skipPayload(tagType);
+            }
+        }
+    }
+
+    /**
+     * Visit a compound selected by a path or leading to selected tags, bracketed by the compound callbacks if the
+     * compound is selected itself.
+     *
+     * @return false if all selected tags have been visited and reading should stop.
+     */
+    private boolean acceptNestedCompound(NbtTagPaths.Node node, NbtVisitor visitor) throws IOException {
+        if (node.id >= 0) {
+            visitor.visitCompoundStart(node.id);
+        }
+        boolean more = this.acceptCompound(node, visitor);
+        if (node.id >= 0) {
+            visitor.visitCompoundEnd(node.id);
+        }
+        return more;
+    }
+
+    /**
+     * Count visited paths, unless inside a list where the same paths can occur again.
+     *
+     * @return true if all selected tags have been visited
+     */
+    private boolean countVisited(int paths) {
+        if (this.listDepth > 0) {
+            return false;
+        }
+        this.unvisitedTags -= paths;
+        return this.unvisitedTags == 0;
+    }
 
+    private void acceptPayload(int id, int tagType, NbtVisitor visitor) throws IOException {
+        switch (tagType) {
+            case NbtItem.TAG_BYTE:
+                visitor.visitByte(id, this.readByte());
+                break;
+            case NbtItem.TAG_SHORT:
+                visitor.visitShort(id, this.readShort());
+                break;
+            case NbtItem.TAG_INT:
+                visitor.visitInt(id, this.readInt());
+                break;
+            case NbtItem.TAG_LONG:
+                visitor.visitLong(id, this.readLong());
+                break;
+            case NbtItem.TAG_FLOAT:
+                visitor.visitFloat(id, this.readFloat());
+                break;
+            case NbtItem.TAG_DOUBLE:
+                visitor.visitDouble(id, this.readDouble());
+                break;
+            case NbtItem.TAG_STRING:
+                visitor.visitString(id, this.readString());
+                break;
+            case NbtItem.TAG_BYTE_ARRAY:
+                int length = this.readInt();
+                visitor.visitByteArray(id, this.buffer, this.sliceArray(length, 1), length);
+                break;
+            case NbtItem.TAG_INT_ARRAY:
+                length = this.readInt();
+                visitor.visitIntArray(id, this.buffer, this.sliceArray(length, 4), length);
+                break;
+            case NbtItem.TAG_LONG_ARRAY:
+                length = this.readInt();
+                visitor.visitLongArray(id, this.buffer, this.sliceArray(length, 8), length);
+                break;
+            default:
+                this.skipPayload(tagType);
+                break;
+        }
+    }
+
+    /**
+     * Skip over the contents of an array tag.
+     *
+     * @return the index of the contents in the buffer
+     */
+    private int sliceArray(int length, int elementSize) throws EOFException {
+        int offset = this.buffer.position();
+        if (length < 0 || (long) length * elementSize > this.buffer.remaining()) {
+            throw new EOFException("Truncated array of " + length + " elements");
+        }
+        this.buffer.position(offset + length * elementSize);
+        return offset;
+    }
+
+    private void skipPayload(int tagType) throws IOException {
+        switch (tagType) {
+            case NbtItem.TAG_BYTE:
+                this.skipBytes(1);
+                break;
+            case NbtItem.TAG_SHORT:
+                this.skipBytes(2);
+                break;
+            case NbtItem.TAG_INT:
+            case NbtItem.TAG_FLOAT:
+                this.skipBytes(4);
+                break;
+            case NbtItem.TAG_LONG:
+            case NbtItem.TAG_DOUBLE:
+                this.skipBytes(8);
+                break;
+            case NbtItem.TAG_BYTE_ARRAY:
+                this.skipBytes(this.readInt());
+                break;
+            case NbtItem.TAG_STRING:
+                this.skipBytes(this.readUnsignedShort());
+                break;
+            case NbtItem.TAG_INT_ARRAY:
+                this.skipBytes(4L * this.readInt());
+                break;
+            case NbtItem.TAG_LONG_ARRAY:
+                this.skipBytes(8L * this.readInt());
+                break;
+            case NbtItem.TAG_LIST:
+                int elementType = this.readByte();
+                this.skipElements(elementType, this.readInt());
+                break;
+            case NbtItem.TAG_COMPOUND:
+                int childType = this.readByte();
+                while (childType != NbtItem.TAG_END) {
+                    this.skipBytes(this.readUnsignedShort());
+                    this.skipPayload(childType);
+                    childType = this.readByte();
+                }
+                break;
+            default:
+                throw new IOException("Unknown tag type " + tagType);
+        }
+    }
+
+    private void skipElements(int elementType, int count) throws IOException {
+        int elementSize = getPayloadSize(elementType);
+        if (elementSize > 0) {
+            this.skipBytes((long) elementSize * count);
+        }
+        else {
+            for (int i = 0; i < count; i++) {
+                this.skipPayload(elementType);
+            }
+        }
+    }
+
+    /**
+     * @return the payload size of fixed size tags, 0 otherwise.
+     */
+    private static int getPayloadSize(int tagType) {
+        switch (tagType) {
+            case NbtItem.TAG_BYTE:
+                return 1;
+            case NbtItem.TAG_SHORT:
+                return 2;
+            case NbtItem.TAG_INT:
+            case NbtItem.TAG_FLOAT:
+                return 4;
+            case NbtItem.TAG_LONG:
+            case NbtItem.TAG_DOUBLE:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    private void skipBytes(long count) throws EOFException {
+        if (count < 0 || count > this.buffer.remaining()) {
+            throw new EOFException("Truncated NBT data");
+        }
+        this.buffer.position(this.buffer.position() + (int) count);
+    }
+
+    private int readUnsignedShort() {
+        return this.buffer.getShort() & 0xffff;
+    }
+
+    private double readDouble() {
+        return this.buffer.getDouble();
     }
 
     private void decrementNumberOfExpectedTags() {
@@ -144,42 +462,63 @@ public class NbtReader {
         te.count--;
     }
 
-    private float readFloat() throws IOException {
-        return this.inputStream.readFloat();
+    private float readFloat() {
+        return this.buffer.getFloat();
     }
 
-    private long readLong() throws IOException {
-        return this.inputStream.readLong();
+    private long readLong() {
+        return this.buffer.getLong();
     }
 
-    private int readInt() throws IOException {
-        return this.inputStream.readInt();
+    private int readInt() {
+        return this.buffer.getInt();
     }
 
-    private byte readByte() throws IOException {
-        int b = this.inputStream.read();
-        if (b < 0) {
-            throw new EOFException("EOF reading byte");
+    private byte readByte() {
+        return this.buffer.get();
+    }
+
+    private String readString() throws EOFException {
+        int count = this.readUnsignedShort();
+        int offset = this.buffer.position();
+        this.skipBytes(count);
+        if (this.buffer.hasArray()) {
+            return new String(this.buffer.array(), this.buffer.arrayOffset() + offset, count, UTF8);
         }
-        return (byte) b;
+        return new String(this.readBytes(offset, count), UTF8);
     }
 
-    private String readString() throws IOException {
-        short count = this.readShort();
-        if (count < 0) {
-            // TODO
+    private byte[] readBytes(int count) throws EOFException {
+        int offset = this.buffer.position();
+        this.skipBytes(count);
+        return this.readBytes(offset, count);
+    }
+
+    private byte[] readBytes(int offset, int count) {
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = this.buffer.get(offset + i);
         }
-        byte[] bytes = this.readBytes(count);
-        return new String(bytes, UTF8);
+        return bytes;
     }
 
-    private byte[] readBytes(int count) throws IOException {
-        byte[] buffer = new byte[count];
-        this.inputStream.readFully(buffer);
-        return buffer;
+    private int[] readInts(int count) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = this.readInt();
+        }
+        return values;
+    }
+
+    private long[] readLongs(int count) {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = this.readLong();
+        }
+        return values;
     }
 
-    private short readShort() throws IOException {
-        return this.inputStream.readShort();
+    private short readShort() {
+        return this.buffer.getShort();
     }
 }
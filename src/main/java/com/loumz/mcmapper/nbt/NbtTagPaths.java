@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper.nbt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A set of tag paths to extract with {@link NbtReader#accept(NbtTagPaths, NbtVisitor)}.
+ * <p/>
+ * A path names the tags leading from the contents of the root compound to the wanted tag, separated by '/',
+ * e.g. "Level/Blocks". Every step but the last must be a compound or a list of compounds, whose elements are all
+ * searched. The last step should be a byte, short, int, long, float, double, string or array tag, or a compound or
+ * list of compounds that is also a step of other paths, e.g. "Level/Sections" together with "Level/Sections/Y".
+ * Such a compound is reported by {@link NbtVisitor#visitCompoundStart(int)} and
+ * {@link NbtVisitor#visitCompoundEnd(int)} around the tags in it. Other lists and compounds cannot be extracted and
+ * are skipped. Each path is identified in the visitor callbacks by its index in the constructor arguments. A null
+ * path selects nothing but keeps its index, so that sets of paths for different layouts of the same data can use
+ * the same ids.
+ */
+public final class NbtTagPaths {
+    static final class Node {
+        final byte[] name;
+        final ArrayList<Node> children = new ArrayList<Node>(4);
+        int id = -1;
+        // number of paths ending at or below this node
+        int pathCount;
+
+        Node(byte[] name) {
+            this.name = name;
+        }
+
+        /**
+         * Find a child by the name bytes at an index of a buffer, so names need not be copied out to be compared.
+         */
+        Node findChild(ByteBuffer buffer, int offset, int nameLength) {
+            for (int i = 0; i < this.children.size(); i++) {
+                Node child = this.children.get(i);
+                if (child.name.length == nameLength && equals(child.name, buffer, offset)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        boolean isLeaf() {
+            return this.children.isEmpty();
+        }
+
+        private static boolean equals(byte[] name, ByteBuffer buffer, int offset) {
+            for (int i = 0; i < name.length; i++) {
+                if (name[i] != buffer.get(offset + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Node root = new Node(new byte[0]);
+    private final int size;
+
+    public NbtTagPaths(String... paths) {
+        int size = 0;
+        for (int id = 0; id < paths.length; id++) {
+            if (paths[id] == null) {
+                continue;
+            }
+            size++;
+            Node node = this.root;
+            for (String step : paths[id].split("/")) {
+                byte[] name = step.getBytes(UTF8);
+                Node child = node.findChild(ByteBuffer.wrap(name), 0, name.length);
+                if (child == null) {
+                    child = new Node(name);
+                    node.children.add(child);
+                }
+                child.pathCount++;
+                node = child;
+            }
+            if (node.id >= 0) {
+                throw new IllegalArgumentException("Path " + paths[id] + " is a duplicate: " + Arrays.toString(paths));
+            }
+            node.id = id;
+        }
+        this.size = size;
+    }
+
+    /**
+     * @return the number of paths in this set, not counting null ones
+     */
+    public int size() {
+        return size;
+    }
+
+    Node getRoot() {
+        return root;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper.nbt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the tags selected by an {@link NbtTagPaths} from {@link NbtReader#accept(NbtTagPaths, NbtVisitor)}.
+ * The id passed to each method is the index of the matching path. All methods do nothing by default, except that
+ * array tags are first offered as a slice of the buffer being read and by default copied into an array.
+ */
+public abstract class NbtVisitor {
+    public void visitByte(int id, byte value) throws IOException {
+    }
+
+    public void visitShort(int id, short value) throws IOException {
+    }
+
+    public void visitInt(int id, int value) throws IOException {
+    }
+
+    public void visitLong(int id, long value) throws IOException {
+    }
+
+    public void visitFloat(int id, float value) throws IOException {
+    }
+
+    public void visitDouble(int id, double value) throws IOException {
+    }
+
+    public void visitString(int id, String value) throws IOException {
+    }
+
+    /**
+     * Visit a byte array tag without copying it. By default the contents are copied into the array from
+     * {@link #getByteArrayBuffer(int, int)} and passed to {@link #visitByteArray(int, byte[], int)}.
+     *
+     * @param id     the path id
+     * @param data   the buffer being read, which must not be modified; its position is undefined
+     * @param offset index of the first byte of the tag contents in data
+     * @param length the length of the byte array tag
+     * @throws IOException if the value is not acceptable
+     */
+    public void visitByteArray(int id, ByteBuffer data, int offset, int length) throws IOException {
+        byte[] value = this.getByteArrayBuffer(id, length);
+        ByteBuffer source = data.duplicate();
+        source.position(offset);
+        source.get(value, 0, length);
+        this.visitByteArray(id, value, length);
+    }
+
+    /**
+     * Get the array a byte array tag is read into. Override to reuse arrays.
+     *
+     * @param id     the path id
+     * @param length the length of the byte array tag
+     * @return an array of at least length bytes
+     */
+    public byte[] getByteArrayBuffer(int id, int length) {
+        return new byte[length];
+    }
+
+    /**
+     * @param id     the path id
+     * @param value  the array returned by {@link #getByteArrayBuffer(int, int)}, filled with the tag contents
+     * @param length the length of the byte array tag
+     * @throws IOException if the value is not acceptable
+     */
+    public void visitByteArray(int id, byte[] value, int length) throws IOException {
+    }
+
+    /**
+     * Visit an int array tag without copying it. By default the contents are copied and passed to
+     * {@link #visitIntArray(int, int[], int)}.
+     *
+     * @param id     the path id
+     * @param data   the buffer being read, which must not be modified; its position is undefined
+     * @param offset index of the first big endian int of the tag contents in data
+     * @param length the length of the int array tag
+     * @throws IOException if the value is not acceptable
+     */
+    public void visitIntArray(int id, ByteBuffer data, int offset, int length) throws IOException {
+        int[] value = this.getIntArrayBuffer(id, length);
+        for (int i = 0; i < length; i++) {
+            value[i] = data.getInt(offset + i * 4);
+        }
+        this.visitIntArray(id, value, length);
+    }
+
+    /**
+     * Get the array an int array tag is read into. Override to reuse arrays.
+     *
+     * @param id     the path id
+     * @param length the length of the int array tag
+     * @return an array of at least length ints
+     */
+    public int[] getIntArrayBuffer(int id, int length) {
+        return new int[length];
+    }
+
+    /**
+     * @param id     the path id
+     * @param value  the array returned by {@link #getIntArrayBuffer(int, int)}, filled with the tag contents
+     * @param length the length of the int array tag
+     * @throws IOException if the value is not acceptable
+     */
+    public void visitIntArray(int id, int[] value, int length) throws IOException {
+    }
+
+    /**
+     * Visit a long array tag without copying it. By default the contents are copied and passed to
+     * {@link #visitLongArray(int, long[], int)}.
+     *
+     * @param id     the path id
+     * @param data   the buffer being read, which must not be modified; its position is undefined
+     * @param offset index of the first big endian long of the tag contents in data
+     * @param length the length of the long array tag
+     * @throws IOException if the value is not acceptable
+     */
+    public void visitLongArray(int id, ByteBuffer data, int offset, int length) throws IOException {
+        long[] value = this.getLongArrayBuffer(id, length);
+        for (int i = 0; i < length; i++) {
+            value[i] = data.getLong(offset + i * 8);
+        }
+        this.visitLongArray(id, value, length);
+    }
+
+    /**
+     * Get the array a long array tag is read into. Override to reuse arrays.
+     *
+     * @param id     the path id
+     * @param length the length of the long array tag
+     * @return an array of at least length longs
+     */
+    public long[] getLongArrayBuffer(int id, int length) {
+        return new long[length];
+    }
+
+    /**
+     * @param id     the path id
+     * @param value  the array returned by {@link #getLongArrayBuffer(int, int)}, filled with the tag contents
+     * @param length the length of the long array tag
+     * @throws IOException if the value is not acceptable
+     */
+    public void visitLongArray(int id, long[] value, int length) throws IOException {
+    }
+
+    /**
+     * Called before the tags in a selected compound, or in each compound of a selected list of compounds.
+     *
+     * @param id the path id
+     * @throws IOException if reading should stop
+     */
+    public void visitCompoundStart(int id) throws IOException {
+    }
+
+    /**
+     * Called after the tags in a compound announced by {@link #visitCompoundStart(int)}.
+     *
+     * @param id the path id
+     * @throws IOException if the compound is not acceptable
+     */
+    public void visitCompoundEnd(int id) throws IOException {
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper.nbt;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes NBT data, tag by tag. Named tags go in compounds; the elements of a list are written with the same
+ * methods and a null name, after {@link #beginList(String, int, int)} has announced their type and number.
+ * Nothing checks that the calls make a well formed document.
+ */
+public class NbtWriter {
+    private final DataOutputStream out;
+
+    /**
+     * @param out the stream to write to, not compressed by the writer
+     */
+    public NbtWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    public NbtWriter beginCompound(String name) throws IOException {
+        this.writeHeader(NbtItem.TAG_COMPOUND, name);
+        return this;
+    }
+
+    public NbtWriter endCompound() throws IOException {
+        this.out.writeByte(NbtItem.TAG_END);
+        return this;
+    }
+
+    /**
+     * Start a list. Write exactly count elements next, with null names.
+     *
+     * @param name        the list name, or null in a list
+     * @param elementType the tag type of the elements, e.g. {@link NbtItem#TAG_COMPOUND}
+     * @param count       the number of elements
+     * @return this writer
+     * @throws IOException if writing fails
+     */
+    public NbtWriter beginList(String name, int elementType, int count) throws IOException {
+        this.writeHeader(NbtItem.TAG_LIST, name);
+        this.out.writeByte(count == 0 ? NbtItem.TAG_END : elementType);
+        this.out.writeInt(count);
+        return this;
+    }
+
+    public NbtWriter writeByte(String name, int value) throws IOException {
+        this.writeHeader(NbtItem.TAG_BYTE, name);
+        this.out.writeByte(value);
+        return this;
+    }
+
+    public NbtWriter writeShort(String name, int value) throws IOException {
+        this.writeHeader(NbtItem.TAG_SHORT, name);
+        this.out.writeShort(value);
+        return this;
+    }
+
+    public NbtWriter writeInt(String name, int value) throws IOException {
+        this.writeHeader(NbtItem.TAG_INT, name);
+        this.out.writeInt(value);
+        return this;
+    }
+
+    public NbtWriter writeLong(String name, long value) throws IOException {
+        this.writeHeader(NbtItem.TAG_LONG, name);
+        this.out.writeLong(value);
+        return this;
+    }
+
+    public NbtWriter writeFloat(String name, float value) throws IOException {
+        this.writeHeader(NbtItem.TAG_FLOAT, name);
+        this.out.writeFloat(value);
+        return this;
+    }
+
+    public NbtWriter writeDouble(String name, double value) throws IOException {
+        this.writeHeader(NbtItem.TAG_DOUBLE, name);
+        this.out.writeDouble(value);
+        return this;
+    }
+
+    public NbtWriter writeString(String name, String value) throws IOException {
+        this.writeHeader(NbtItem.TAG_STRING, name);
+        this.out.writeUTF(value);
+        return this;
+    }
+
+    public NbtWriter writeByteArray(String name, byte[] value) throws IOException {
+        this.writeHeader(NbtItem.TAG_BYTE_ARRAY, name);
+        this.out.writeInt(value.length);
+        this.out.write(value);
+        return this;
+    }
+
+    public NbtWriter writeIntArray(String name, int[] value) throws IOException {
+        this.writeHeader(NbtItem.TAG_INT_ARRAY, name);
+        this.out.writeInt(value.length);
+        for (int v : value) {
+            this.out.writeInt(v);
+        }
+        return this;
+    }
+
+    public NbtWriter writeLongArray(String name, long[] value) throws IOException {
+        this.writeHeader(NbtItem.TAG_LONG_ARRAY, name);
+        this.out.writeInt(value.length);
+        for (long v : value) {
+            this.out.writeLong(v);
+        }
+        return this;
+    }
+
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    private void writeHeader(int tagType, String name) throws IOException {
+        // list elements have neither type nor name
+        if (name != null) {
+            this.out.writeByte(tagType);
+            this.out.writeUTF(name);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz.mcmapper.png;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streaming PNG encoder. Rows are compressed as they are written, so the image never has to be in memory as a whole.
+ * Writes 8 bit RGBA, non-interlaced. Rows are not filtered: maps are mostly long runs of a few colors, which deflate
+ * compresses better as they are than after the usual adaptive filtering.
+ */
+public class PngWriter {
+    private static final byte[] SIGNATURE = new byte[]{(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    static final int IDAT_SIZE = 64 * 1024;
+    static final int BYTES_PER_PIXEL = 4;
+    static final int COLOR_TYPE_RGB = 2;
+    static final int COLOR_TYPE_INDEXED = 3;
+    static final int COLOR_TYPE_RGBA = 6;
+
+    /**
+     * Un-premultiplied color component for (alpha << 8 | component), computed like
+     * DirectColorModel.getRGB does for TYPE_INT_ARGB_PRE images. Components larger than alpha give results
+     * above 255; they are combined like getRGB combines them so output matches BufferedImage-based writers.
+     */
+    private static final int[] UNPREMULTIPLY = new int[256 * 256];
+
+    static {
+        for (int a = 1; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                UNPREMULTIPLY[a << 8 | c] = (int) ((c * 255.0f / a) + 0.5f);
+            }
+        }
+    }
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final DeflaterOutputStream idat;
+    // filter type byte followed by the row's RGBA bytes
+    private final byte[] row;
+    private int rowsWritten;
+
+    public PngWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Start a PNG image. Writes the signature and header right away.
+     *
+     * @param out              the stream to write to. It is not closed by {@link #finish()}.
+     * @param width            image width
+     * @param height           image height
+     * @param compressionLevel deflate level, 0-9 or Deflater.DEFAULT_COMPRESSION
+     * @throws IOException on write errors
+     */
+    public PngWriter(OutputStream out, int width, int height, int compressionLevel) throws IOException {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        // filter type 0, none
+        this.row = new byte[width * BYTES_PER_PIXEL + 1];
+        this.deflater = new Deflater(compressionLevel);
+        this.idat = new DeflaterOutputStream(new ChunkOutputStream(out, "IDAT", IDAT_SIZE), this.deflater, IDAT_SIZE);
+        writeHeader(out, width, height, COLOR_TYPE_RGBA);
+    }
+
+    /**
+     * Write the next row of the image.
+     *
+     * @param pixels packed premultiplied ARGB pixels, as in a TYPE_INT_ARGB_PRE image
+     * @param offset index of the first pixel of the row
+     * @throws IOException on write errors
+     */
+    public void writeRow(int[] pixels, int offset) throws IOException {
+        if (this.rowsWritten >= this.height) {
+            throw new IllegalStateException("All " + this.height + " rows have been written");
+        }
+        toRgba(pixels, offset, this.width, this.row, 1);
+        this.idat.write(this.row, 0, this.row.length);
+        this.rowsWritten++;
+    }
+
+    /**
+     * Finish the image data and write the end chunk. Does not close the underlying stream.
+     *
+     * @throws IOException on write errors or if not all rows have been written
+     */
+    public void finish() throws IOException {
+        if (this.rowsWritten != this.height) {
+            throw new IOException("Only " + this.rowsWritten + " of " + this.height + " rows were written");
+        }
+        this.idat.finish();
+        this.idat.flush();
+        this.deflater.end();
+        writeChunk(this.out, "IEND", new byte[0], 0);
+        this.out.flush();
+    }
+
+    /**
+     * Write the signature and header of an 8 bit, non-interlaced image.
+     *
+     * @param colorType {@link #COLOR_TYPE_RGB}, {@link #COLOR_TYPE_INDEXED} or {@link #COLOR_TYPE_RGBA}
+     */
+    static void writeHeader(OutputStream out, int width, int height, int colorType) throws IOException {
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = (byte) colorType;
+        header[10] = 0; // deflate
+        header[11] = 0; // adaptive filtering
+        header[12] = 0; // not interlaced
+        writeChunk(out, "IHDR", header, header.length);
+    }
+
+    /**
+     * Convert a row of pixels to raw RGBA bytes.
+     *
+     * @param pixels packed premultiplied ARGB pixels, as in a TYPE_INT_ARGB_PRE image
+     * @param offset index of the first pixel of the row
+     * @param width     number of pixels in the row
+     * @param row       receives width * 4 bytes
+     * @param rowOffset index in row of the first byte
+     */
+    static void toRgba(int[] pixels, int offset, int width, byte[] row, int rowOffset) {
+        for (int x = 0, i = rowOffset; x < width; x++, i += BYTES_PER_PIXEL) {
+            int argb = unpremultiply(pixels[offset + x]);
+            row[i] = (byte) (argb >> 16);
+            row[i + 1] = (byte) (argb >> 8);
+            row[i + 2] = (byte) argb;
+            row[i + 3] = (byte) (argb >>> 24);
+        }
+    }
+
+    /**
+     * Un-premultiply a pixel the way the RGBA rows are written.
+     *
+     * @param pixel packed premultiplied ARGB
+     * @return the packed ARGB written for it
+     */
+    static int unpremultiply(int pixel) {
+        int a = pixel >>> 24;
+        if (a == 0) {
+            return 0;
+        }
+        int table = a << 8;
+        return (a << 24)
+                | (UNPREMULTIPLY[table | ((pixel >> 16) & 0xff)] << 16)
+                | (UNPREMULTIPLY[table | ((pixel >> 8) & 0xff)] << 8)
+                | UNPREMULTIPLY[table | (pixel & 0xff)];
+    }
+
+    /**
+     * Convert a row of opaque pixels to raw RGB bytes.
+     *
+     * @param pixels packed ARGB pixels, all with alpha 255
+     * @param offset index of the first pixel of the row
+     * @param width     number of pixels in the row
+     * @param row       receives width * 3 bytes
+     * @param rowOffset index in row of the first byte
+     */
+    static void toRgb(int[] pixels, int offset, int width, byte[] row, int rowOffset) {
+        for (int x = 0, i = rowOffset; x < width; x++, i += 3) {
+            int pixel = pixels[offset + x];
+            row[i] = (byte) (pixel >> 16);
+            row[i + 1] = (byte) (pixel >> 8);
+            row[i + 2] = (byte) pixel;
+        }
+    }
+
+    static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        byte[] lengthBytes = new byte[4];
+        writeInt(lengthBytes, 0, length);
+        out.write(lengthBytes);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] crcBytes = new byte[4];
+        writeInt(crcBytes, 0, (int) crc.getValue());
+        out.write(crcBytes);
+    }
+
+    static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Buffers its input and writes it out as chunks of one type.
+     */
+    static class ChunkOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final String type;
+        private final byte[] buffer;
+        private int count;
+
+        ChunkOutputStream(OutputStream out, String type, int chunkSize) {
+            this.out = out;
+            this.type = type;
+            this.buffer = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.count == this.buffer.length) {
+                this.flushChunk();
+            }
+            this.buffer[this.count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (this.count == this.buffer.length) {
+                    this.flushChunk();
+                }
+                int n = Math.min(len, this.buffer.length - this.count);
+                System.arraycopy(b, off, this.buffer, this.count, n);
+                this.count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (this.count > 0) {
+                writeChunk(this.out, this.type, this.buffer, this.count);
+                this.count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.Chunk;
+import com.loumz.mcmapper.RegionWorld;
+import com.loumz.mcmapper.nbt.NbtItem;
+import com.loumz.mcmapper.nbt.NbtWriter;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Loads chunks in each Anvil layout. Every chunk has a stone section, two sections of a mixed palette up to a column
+ * dependent height, and an all-air section that must be dropped. The chunks end in a truncated list after the
+ * sections, which is only read if the reader fails to stop once it has all the tags it needs.
+ */
+public class AnvilChunkTest extends TestCase {
+    // block ids before 1.13
+    static final int LAYOUT_IDS = 0;
+    // 1.13 to 1.15, palette indexes packed back to back across longs
+    static final int LAYOUT_1_13 = 1;
+    // 1.16 and 1.17, palette indexes not crossing longs
+    static final int LAYOUT_1_16 = 2;
+    // 1.18 and later, sections in the root compound
+    static final int LAYOUT_1_18 = 3;
+
+    // 17 entries, so indexes take 5 bits and cross longs in the 1.13 layout
+    private static final String[] NAMES = {
+            "minecraft:air", "minecraft:stone", "minecraft:grass_block", "minecraft:dirt", "minecraft:water",
+            "minecraft:sand", "minecraft:oak_log", "minecraft:oak_planks", "minecraft:glass", "minecraft:gold_ore",
+            "minecraft:snow", "minecraft:ice", "minecraft:cactus", "minecraft:clay", "minecraft:pumpkin",
+            "minecraft:not_a_block", "red_wool"
+    };
+    private static final byte[] IDS = {0, 1, 2, 3, 9, 12, 17, 5, 20, 14, 78, 79, 81, 82, 86, 1, 35};
+
+    private TempWorld tempWorld;
+    private RegionWorld regions;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempWorld = new TempWorld();
+        File regionDir = new File(this.tempWorld.getDir(), "region");
+        assertTrue(regionDir.mkdir());
+        RegionFileBuilder builder = new RegionFileBuilder();
+        for (int layout = LAYOUT_IDS; layout <= LAYOUT_1_18; layout++) {
+            builder.addChunk(layout, 1, createChunk(layout, layout, 1), RegionFileBuilder.ZLIB, 0);
+        }
+        builder.write(new File(regionDir, "r.0.0.mca"));
+        this.regions = new RegionWorld(this.tempWorld.getDir());
+    }
+
+    @Override
+    protected void tearDown() {
+        this.tempWorld.delete();
+    }
+
+    public void testBlockIds() throws IOException {
+        this.checkChunk(LAYOUT_IDS);
+    }
+
+    public void testCrossingIndexes() throws IOException {
+        this.checkChunk(LAYOUT_1_13);
+    }
+
+    public void testAlignedIndexes() throws IOException {
+        this.checkChunk(LAYOUT_1_16);
+    }
+
+    public void testRootSections() throws IOException {
+        this.checkChunk(LAYOUT_1_18);
+    }
+
+    private void checkChunk(int layout) throws IOException {
+        int baseY = getBaseSection(layout) * 16;
+        Chunk chunk = this.regions.getChunk(layout, 1);
+        assertTrue(this.regions.getRegion(0, 0).isAnvil());
+        for (int pass = 0; pass < 2; pass++) {
+            boolean loadLight = pass == 0;
+            chunk.load(loadLight);
+            try {
+                assertEquals(baseY, chunk.getMinY());
+                // the all-air section on top is dropped
+                assertEquals(baseY + 3 * 16 - 1, chunk.getMaxY());
+                for (int x = 0; x < 16; x++) {
+                    for (int z = 0; z < 16; z++) {
+                        int height = getHeight(x, z);
+                        assertEquals(baseY + height, chunk.getHeightAt(x, z));
+                        assertEquals(IDS[getPaletteIndex(x, height, z)], chunk.getTopBlockAt(x, z));
+                        for (int y = -16; y < 80; y++) {
+                            byte expected = y >= 0 && y <= height ? IDS[getPaletteIndex(x, y, z)] : 0;
+                            assertEquals("Block " + x + "," + y + "," + z, expected, chunk.getBlockAt(x, z, baseY + y));
+                            if (!loadLight) {
+                                continue;
+                            }
+                            boolean stored = y >= 0 && y < 48;
+                            assertEquals(stored ? getSkyLight(x, y, z) : 15, chunk.getSkyLightAt(x, z, baseY + y));
+                            assertEquals(stored ? getBlockLight(x, y, z) : 0, chunk.getBlockLightAt(x, z, baseY + y));
+                        }
+                    }
+                }
+            }
+            finally {
+                chunk.unload();
+            }
+        }
+    }
+
+    private static int getBaseSection(int layout) {
+        return layout == LAYOUT_1_18 ? -4 : 0;
+    }
+
+    /**
+     * @return the height of the column above the lowest section, in the two middle sections
+     */
+    private static int getHeight(int x, int z) {
+        return 20 + (x * 3 + z * 5) % 24;
+    }
+
+    /**
+     * @param y y above the lowest section
+     */
+    private static int getPaletteIndex(int x, int y, int z) {
+        if (y > getHeight(x, z)) {
+            return 0;
+        }
+        return y < 16 ? 1 : 1 + ((x + 2 * y + 3 * z) & 15);
+    }
+
+    private static int getSkyLight(int x, int y, int z) {
+        return (x + y + z) & 15;
+    }
+
+    private static int getBlockLight(int x, int y, int z) {
+        return (x ^ y ^ z) & 15;
+    }
+
+    static byte[] createChunk(int layout, int chunkX, int chunkZ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtWriter writer = new NbtWriter(bytes);
+        writer.beginCompound("");
+        if (layout == LAYOUT_1_18) {
+            writer.writeInt("DataVersion", 2860)
+                    .writeString("Status", "full")
+                    .writeInt("xPos", chunkX)
+                    .writeInt("yPos", getBaseSection(layout))
+                    .writeInt("zPos", chunkZ)
+                    .beginCompound("Heightmaps")
+                    .endCompound();
+        }
+        else {
+            writer.writeInt("DataVersion", layout == LAYOUT_IDS ? 1343 : layout == LAYOUT_1_13 ? 1976 : 2586)
+                    .beginCompound("Level")
+                    .writeInt("xPos", chunkX)
+                    .writeInt("zPos", chunkZ);
+        }
+        // out of order, and with a section holding only light on top for 1.18
+        int base = getBaseSection(layout);
+        int[] sections = layout == LAYOUT_1_18 ? new int[]{2, 0, 3, 1, 4} : new int[]{2, 0, 3, 1};
+        writer.beginList(layout == LAYOUT_1_18 ? "sections" : "Sections", NbtItem.TAG_COMPOUND, sections.length);
+        for (int s : sections) {
+            writer.beginCompound(null);
+            if (s == 4) {
+                writer.writeByte("Y", base + s).writeByteArray("SkyLight", new byte[2048]).endCompound();
+                continue;
+            }
+            if (layout != LAYOUT_1_13) {
+                writer.writeByte("Y", base + s);
+            }
+            writeBlocks(writer, layout, s);
+            if (s < 3) {
+                writer.writeByteArray("SkyLight", createLight(s, true))
+                        .writeByteArray("BlockLight", createLight(s, false));
+            }
+            if (layout == LAYOUT_1_13) {
+                // tags may come in any order
+                writer.writeByte("Y", base + s);
+            }
+            writer.endCompound();
+        }
+        // never completed, so reading past the sections fails
+        writer.beginList(layout == LAYOUT_1_18 ? "block_entities" : "TileEntities", NbtItem.TAG_COMPOUND, 3)
+                .writeInt("x", 0);
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private static void writeBlocks(NbtWriter writer, int layout, int s) throws IOException {
+        int[] indexes = new int[16 * 16 * 16];
+        for (int i = 0; i < indexes.length; i++) {
+            // y * 256 + z * 16 + x
+            indexes[i] = getPaletteIndex(i & 15, s * 16 + (i >> 8), (i >> 4) & 15);
+        }
+        if (layout == LAYOUT_IDS) {
+            byte[] blocks = new byte[indexes.length];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = IDS[indexes[i]];
+            }
+            writer.writeByteArray("Blocks", blocks).writeByteArray("Data", new byte[blocks.length / 2]);
+            return;
+        }
+        if (layout == LAYOUT_1_18) {
+            writer.beginCompound("block_states");
+        }
+        // the stone and air sections are written as single entry palettes without indexes
+        String[] palette = s == 0 ? new String[]{NAMES[1]} : s == 3 ? new String[]{NAMES[0]} : NAMES;
+        writer.beginList(layout == LAYOUT_1_18 ? "palette" : "Palette", NbtItem.TAG_COMPOUND, palette.length);
+        for (String name : palette) {
+            writer.beginCompound(null).writeString("Name", name).endCompound();
+        }
+        if (palette.length > 1) {
+            long[] states = layout == LAYOUT_1_13 ? packCrossing(indexes, 5) : packAligned(indexes, 5);
+            writer.writeLongArray(layout == LAYOUT_1_18 ? "data" : "BlockStates", states);
+        }
+        if (layout == LAYOUT_1_18) {
+            writer.endCompound();
+        }
+    }
+
+    private static long[] packCrossing(int[] indexes, int bits) {
+        long[] states = new long[indexes.length * bits / 64];
+        for (int i = 0; i < indexes.length; i++) {
+            long bit = (long) i * bits;
+            int l = (int) (bit >> 6);
+            int shift = (int) (bit & 63);
+            states[l] |= (long) indexes[i] << shift;
+            if (shift + bits > 64) {
+                states[l + 1] |= (long) indexes[i] >>> (64 - shift);
+            }
+        }
+        return states;
+    }
+
+    private static long[] packAligned(int[] indexes, int bits) {
+        int perLong = 64 / bits;
+        long[] states = new long[(indexes.length + perLong - 1) / perLong];
+        for (int i = 0; i < indexes.length; i++) {
+            states[i / perLong] |= (long) indexes[i] << (i % perLong * bits);
+        }
+        return states;
+    }
+
+    private static byte[] createLight(int s, boolean sky) {
+        byte[] light = new byte[16 * 16 * 16 / 2];
+        for (int i = 0; i < 16 * 16 * 16; i++) {
+            int x = i & 15;
+            int y = s * 16 + (i >> 8);
+            int z = (i >> 4) & 15;
+            int value = sky ? getSkyLight(x, y, z) : getBlockLight(x, y, z);
+            // even indexes are in the low nibble
+            light[i >> 1] |= value << ((i & 1) << 2);
+        }
+        return light;
+    }
+}
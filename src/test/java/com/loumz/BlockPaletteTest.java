@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.BlockPalette;
+import com.loumz.mcmapper.LevelUtil;
+import junit.framework.TestCase;
+
+public class BlockPaletteTest extends TestCase {
+
+    public void testColors() {
+        BlockPalette palette = new BlockPalette(new int[]{0, 0, 0, 0, 200, 100, 51, 255}, new int[]{1},
+                new int[]{-56});
+        assertEquals(0xffc86433, palette.getColor((byte) 1));
+        assertEquals(0xffc86433, palette.getShadedColor((byte) 1, BlockPalette.FULL_BRIGHTNESS));
+        assertEquals(0xff643219, palette.getShadedColor((byte) 1, 64));
+        assertEquals(0xff000000, palette.getShadedColor((byte) 1, 0));
+        // ids past the colors given get the color of id 0
+        assertEquals(0, palette.getColor((byte) 2));
+        assertEquals(0, palette.getColor((byte) -56));
+        assertEquals(BlockPalette.WATERY, palette.getProperties((byte) 1));
+        assertEquals(BlockPalette.FIERY, palette.getProperties((byte) 200));
+        assertEquals(0, palette.getProperties((byte) 2));
+    }
+
+    public void testHighBlockIds() {
+        BlockPalette palette = LevelUtil.getPalette();
+        int[] rgba = new int[4];
+        for (int id = 128; id < 256; id++) {
+            LevelUtil.getRgbaValues((byte) id, rgba);
+            assertEquals(0, rgba[3]);
+            assertEquals(0, palette.getColor((byte) id) >>> 24);
+            assertEquals(0, palette.getProperties((byte) id));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.ChunkFileNames;
+import com.loumz.mcmapper.ChunkIndex;
+import junit.framework.TestCase;
+
+public class ChunkFileNamesTest extends TestCase {
+
+    private static final int[] VALUES = new int[]{
+            0, 1, -1, 35, 36, -36, 63, 64, 1295, -1296, 31250, -31250, 1874919423, Integer.MAX_VALUE, Integer.MIN_VALUE
+    };
+
+    public void testRoundTrip() {
+        StringBuilder sb = new StringBuilder();
+        for (int x : VALUES) {
+            for (int z : VALUES) {
+                sb.setLength(0);
+                String name = ChunkFileNames.appendName(sb, x, z).toString();
+                assertEquals("c." + Integer.toString(x, 36) + "." + Integer.toString(z, 36) + ".dat", name);
+                assertEquals(ChunkIndex.pack(x, z), ChunkFileNames.parse(name));
+            }
+        }
+    }
+
+    public void testPath() {
+        StringBuilder sb = new StringBuilder();
+        ChunkFileNames.appendPath(sb, -13, 100);
+        String sep = String.valueOf(java.io.File.separatorChar);
+        assertEquals("1f" + sep + "10" + sep + "c.-d.2s.dat", sb.toString());
+    }
+
+    public void testNotChunkNames() {
+        String[] names = new String[]{
+                "", "c..dat", "c.1.dat", "c.1..dat", "c..1.dat", "c.1.2.da", "d.1.2.dat", "c.1.2.dat.bak",
+                "c.A.2.dat", "c.1.-.dat", "c.1.2.3.dat", "c.zzzzzzzz.0.dat", "c.1-2.0.dat", "level.dat"
+        };
+        for (String name : names) {
+            assertEquals(name, ChunkFileNames.NOT_A_CHUNK, ChunkFileNames.parse(name));
+        }
+    }
+
+    public void testRegionNames() {
+        assertEquals(ChunkIndex.pack(0, 0), ChunkFileNames.parseRegionName("r.0.0.mcr", "mcr"));
+        assertEquals(ChunkIndex.pack(-1, -2), ChunkFileNames.parseRegionName("r.-1.-2.mcr", "mcr"));
+        assertEquals(ChunkIndex.pack(31, -40), ChunkFileNames.parseRegionName("r.31.-40.mca", "mca"));
+        String[] names = new String[]{
+                "r.0.0.mca", "r.0.mcr", "r..0.mcr", "r.0..mcr", "r.-.0.mcr", "r.a.0.mcr", "r.0.0.0.mcr", "x.0.0.mcr",
+                "r.0.0.mcr.bak"
+        };
+        for (String name : names) {
+            assertEquals(name, ChunkFileNames.NOT_A_CHUNK, ChunkFileNames.parseRegionName(name, "mcr"));
+        }
+    }
+}
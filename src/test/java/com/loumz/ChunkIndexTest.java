@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.ChunkIndex;
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class ChunkIndexTest extends TestCase {
+    // long before any scan, so that the recorded mtimes are trusted
+    private static final long PAST = 1000000000000L;
+    // after magic, version and top directory mtime
+    private static final int CHUNK_COUNT_OFFSET = 4 + 4 + 8;
+    // after the chunk count, bounds and first level directory mtimes
+    private static final int DIRECTORIES_OFFSET = CHUNK_COUNT_OFFSET + 4 + 4 * 4 + 64 * 8;
+
+    private TempWorld tempWorld;
+    private File worldDir;
+    private File indexFile;
+    private final StringBuilder scratch = new StringBuilder();
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempWorld = new TempWorld();
+        this.worldDir = this.tempWorld.getDir();
+        this.indexFile = new File(this.worldDir, ChunkIndex.FILE_NAME);
+        // the index only looks at file names
+        for (int x = -1; x <= 1; x++) {
+            for (int z = -1; z <= 1; z++) {
+                this.createChunk(x, z);
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        this.tempWorld.delete();
+    }
+
+    public void testRoundTrip() throws IOException {
+        backdate(this.worldDir);
+        ChunkIndex index = this.saveIndex();
+        assertEquals(9, index.getChunkCount());
+        assertEquals(new Rectangle(-1, -1, 3, 3), index.getBounds());
+
+        ChunkIndex loaded = new ChunkIndex(this.worldDir);
+        assertEquals(9, loaded.getChunkCount());
+        assertEquals(new Rectangle(-1, -1, 3, 3), loaded.getBounds());
+        assertTrue(Arrays.equals(index.getChunks(), loaded.getChunks()));
+        assertTrue(loaded.contains(1, -1));
+        assertFalse(loaded.contains(2, -1));
+        assertFalse(loaded.contains(1 + 64, -1));
+
+        // nothing changed, so nothing is written
+        assertTrue(this.indexFile.setLastModified(PAST));
+        loaded.update(2);
+        loaded.save();
+        assertEquals(PAST, this.indexFile.lastModified());
+    }
+
+    public void testChangedDirectory() throws IOException {
+        backdate(this.worldDir);
+        this.saveIndex();
+        // a new chunk in the directory of chunk (1, 1)
+        File dir = this.chunkFile(1, 1).getParentFile();
+        File added = this.chunkFile(1 + 64, 1);
+        assertEquals(dir, added.getParentFile());
+        this.createChunk(1 + 64, 1);
+
+        // the same mtime means the same directory
+        assertTrue(dir.setLastModified(PAST));
+        ChunkIndex index = new ChunkIndex(this.worldDir);
+        index.update(2);
+        assertFalse(index.contains(1 + 64, 1));
+
+        assertTrue(dir.setLastModified(PAST + 1000));
+        index.update(2);
+        assertTrue(index.contains(1 + 64, 1));
+        assertEquals(10, index.getChunkCount());
+        assertEquals(new Rectangle(-1, -1, 67, 3), index.getBounds());
+
+        File removed = this.chunkFile(-1, -1);
+        assertTrue(removed.delete());
+        assertTrue(removed.getParentFile().setLastModified(PAST + 1000));
+        index.update(2);
+        assertFalse(index.contains(-1, -1));
+        assertEquals(9, index.getChunkCount());
+    }
+
+    public void testRecentlyModifiedDirectory() throws IOException {
+        this.saveIndex();
+        File dir = this.chunkFile(1, 1).getParentFile();
+        long modified = dir.lastModified();
+        this.createChunk(1 + 64, 1);
+        assertTrue(dir.setLastModified(modified));
+
+        // the directory was modified just before the first scan, so its mtime was not trusted
+        ChunkIndex index = new ChunkIndex(this.worldDir);
+        index.update(2);
+        assertTrue(index.contains(1 + 64, 1));
+        assertEquals(10, index.getChunkCount());
+    }
+
+    public void testCorruptIndex() throws IOException {
+        backdate(this.worldDir);
+        long[] chunks = this.saveIndex().getChunks();
+        byte[] data = readFile(this.indexFile);
+
+        writeFile(this.indexFile, resize(data, data.length / 2));
+        assertRescanned(chunks);
+        byte[] garbage = new byte[data.length];
+        Arrays.fill(garbage, (byte) 0x55);
+        writeFile(this.indexFile, garbage);
+        assertRescanned(chunks);
+        writeFile(this.indexFile, new byte[0]);
+        assertRescanned(chunks);
+
+        // a directory count far beyond the end of the file
+        byte[] damaged = data.clone();
+        ByteBuffer.wrap(damaged).putInt(DIRECTORIES_OFFSET, Integer.MAX_VALUE);
+        writeFile(this.indexFile, damaged);
+        assertRescanned(chunks);
+        // a chunk count the directories do not add up to
+        damaged = data.clone();
+        ByteBuffer.wrap(damaged).putInt(CHUNK_COUNT_OFFSET, chunks.length + 1);
+        writeFile(this.indexFile, damaged);
+        assertRescanned(chunks);
+        // trailing data
+        writeFile(this.indexFile, resize(data, data.length + 8));
+        assertRescanned(chunks);
+    }
+
+    private void assertRescanned(long[] chunks) throws IOException {
+        ChunkIndex index = new ChunkIndex(this.worldDir);
+        assertEquals(0, index.getChunkCount());
+        index.update(2);
+        assertTrue(Arrays.equals(chunks, index.getChunks()));
+        assertEquals(new Rectangle(-1, -1, 3, 3), index.getBounds());
+    }
+
+    /**
+     * Scan the world and write its index file, keeping the mtime of the world directory the index file is written to.
+     */
+    private ChunkIndex saveIndex() throws IOException {
+        long modified = this.worldDir.lastModified();
+        ChunkIndex index = new ChunkIndex(this.worldDir);
+        index.update(2);
+        index.save();
+        assertTrue(this.indexFile.isFile());
+        assertTrue(this.worldDir.setLastModified(modified));
+        return index;
+    }
+
+    private File chunkFile(int x, int z) {
+        return ChunkIndex.getChunkFile(this.worldDir, x, z, this.scratch);
+    }
+
+    private void createChunk(int x, int z) throws IOException {
+        File file = this.chunkFile(x, z);
+        file.getParentFile().mkdirs();
+        assertTrue(file.createNewFile());
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] resize(byte[] data, int length) {
+        byte[] resized = new byte[length];
+        System.arraycopy(data, 0, resized, 0, Math.min(data.length, length));
+        return resized;
+    }
+
+    private static void writeFile(File f, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Set the mtime of a directory and the directories in it to {@link #PAST}.
+     */
+    private static void backdate(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    backdate(child);
+                }
+            }
+        }
+        assertTrue(dir.setLastModified(PAST));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.HeightCuedDrawMapAction;
+import com.loumz.mcmapper.MapOrientation;
+import com.loumz.mcmapper.SyntheticWorld;
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+public class HeightCuedDrawMapActionTest extends TestCase {
+    /**
+     * The most any color channel may differ from the golden image, which was rendered with floating point blending.
+     * Integer blending rounds down exactly where float blending sometimes lands just below a whole number.
+     */
+    private static final int TOLERANCE = 1;
+
+    public void testGoldenImage() throws Exception {
+        TempWorld tempWorld = new TempWorld();
+        try {
+            SyntheticWorld world = new SyntheticWorld();
+            world.setBlockLightNoise(6);
+            File levelFile = tempWorld.generate(world, 8);
+            File outputFile = new File(tempWorld.getDir(), "level.png");
+            HeightCuedDrawMapAction action = new HeightCuedDrawMapAction(levelFile, null, MapOrientation.NESW);
+            action.setOutputFile(outputFile);
+            action.run();
+            if (action.getFailure() != null) {
+                throw action.getFailure();
+            }
+
+            BufferedImage golden = ImageIO.read(getClass().getResource("cartograph-golden.png"));
+            BufferedImage image = ImageIO.read(outputFile);
+            assertEquals(golden.getWidth(), image.getWidth());
+            // the footer below the map has the date in it
+            assertTrue(image.getHeight() > golden.getHeight());
+            for (int y = 0; y < golden.getHeight(); y++) {
+                for (int x = 0; x < golden.getWidth(); x++) {
+                    int expected = golden.getRGB(x, y);
+                    int actual = image.getRGB(x, y);
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        int difference = Math.abs(((expected >>> shift) & 0xff) - ((actual >>> shift) & 0xff));
+                        if (difference > TOLERANCE) {
+                            fail("Pixel " + x + "," + y + ": expected " + Integer.toHexString(expected) + " but was "
+                                    + Integer.toHexString(actual));
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            tempWorld.delete();
+        }
+    }
+}
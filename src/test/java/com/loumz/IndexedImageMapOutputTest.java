@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.DrawMapAction;
+import com.loumz.mcmapper.IndexedImageMapOutput;
+import com.loumz.mcmapper.MapOrientation;
+import com.loumz.mcmapper.OutputFormat;
+import com.loumz.mcmapper.SyntheticWorld;
+import com.loumz.mcmapper.png.ParallelPngEncoder;
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+public class IndexedImageMapOutputTest extends TestCase {
+    public void testSameAsImage() throws Exception {
+        TempWorld tempWorld = new TempWorld();
+        try {
+            File levelFile = tempWorld.generate(new SyntheticWorld(), 8);
+            File imageFile = new File(tempWorld.getDir(), "image.png");
+            File indexedFile = new File(tempWorld.getDir(), "indexed.png");
+            render(levelFile, imageFile, OutputFormat.IMAGE);
+            render(levelFile, indexedFile, OutputFormat.INDEXED_PNG);
+
+            BufferedImage image = ImageIO.read(imageFile);
+            BufferedImage indexed = ImageIO.read(indexedFile);
+            assertTrue(indexed.getColorModel() instanceof IndexColorModel);
+            assertEquals(image.getWidth(), indexed.getWidth());
+            assertEquals(image.getHeight(), indexed.getHeight());
+            // the footer below the map has the date in it
+            for (int y = 0; y < 8 * 16; y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    assertEquals("Pixel " + x + "," + y, image.getRGB(x, y), indexed.getRGB(x, y));
+                }
+            }
+            assertTrue(indexedFile.length() < imageFile.length());
+        }
+        finally {
+            tempWorld.delete();
+        }
+    }
+
+    public void testTooManyColors() throws Exception {
+        File file = File.createTempFile("mcmapper-test", ".png");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            IndexedImageMapOutput output = new IndexedImageMapOutput(file, 2, 1, 0,
+                    new ParallelPngEncoder(executor, 1, Deflater.DEFAULT_COMPRESSION));
+            int[] tile = new int[256];
+            // 255 colors and transparent fill the palette
+            for (int i = 0; i < 255; i++) {
+                tile[i] = 0xff000000 | i;
+            }
+            output.writeTile(0, 0, tile);
+            assertEquals(256, output.getColorCount());
+            tile[0] = 0xff0000ff;
+            try {
+                output.writeTile(1, 0, tile);
+                fail("Expected the palette to be full");
+            }
+            catch (IOException e) {
+                // expected
+            }
+        }
+        finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    private static void render(File levelFile, File outputFile, OutputFormat outputFormat) throws Exception {
+        DrawMapAction action = new DrawMapAction(levelFile, null, MapOrientation.NESW);
+        action.setOutputFile(outputFile);
+        action.setOutputFormat(outputFormat);
+        action.run();
+        if (action.getFailure() != null) {
+            throw action.getFailure();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.Chunk;
+import com.loumz.mcmapper.ChunkIndex;
+import com.loumz.mcmapper.Level;
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+public class LevelTest extends TestCase {
+    // the y of the topmost block of every column of a generated chunk
+    static final int GROUND_HEIGHT = 63;
+
+    private TempWorld tempWorld;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempWorld = new TempWorld();
+    }
+
+    @Override
+    protected void tearDown() {
+        this.tempWorld.delete();
+    }
+
+    public void testHitsAndMisses() throws IOException {
+        Level level = new Level(this.generate(3));
+        Rectangle bounds = level.getBounds();
+        Chunk chunk = level.getLoadedChunk(bounds.x, bounds.y);
+        assertNotNull(chunk);
+        assertEquals(0, level.getCacheHits());
+        assertEquals(1, level.getCacheMisses());
+        assertEquals(chunk.getLoadedSize(), level.getCacheBytes());
+        assertSame(chunk, level.getLoadedChunk(bounds.x, bounds.y));
+        assertEquals(1, level.getCacheHits());
+        assertNull(level.getLoadedChunk(bounds.x - 10, bounds.y));
+        assertEquals(2, level.getCacheMisses());
+        assertEquals(0, level.getCacheEvictions());
+
+        level.clearCache();
+        assertEquals(0, level.getCacheBytes());
+        assertNotSame(chunk, level.getLoadedChunk(bounds.x, bounds.y));
+        assertEquals(3, level.getCacheMisses());
+    }
+
+    public void testBudget() throws IOException {
+        File levelFile = this.generate(3);
+        Rectangle bounds = new Level(levelFile).getBounds();
+        // all generated chunks have the same size
+        int size = new Level(levelFile).getLoadedChunk(bounds.x, bounds.y).getLoadedSize();
+        Level level = new Level(levelFile, 2 * size + size / 2);
+        Chunk a = level.getLoadedChunk(bounds.x, bounds.y);
+        level.getLoadedChunk(bounds.x + 1, bounds.y);
+        assertSame(a, level.getLoadedChunk(bounds.x, bounds.y));
+        // evicts the least recently used chunk, x + 1
+        level.getLoadedChunk(bounds.x + 2, bounds.y);
+        assertEquals(1, level.getCacheEvictions());
+        assertEquals(2 * size, level.getCacheBytes());
+        assertSame(a, level.getLoadedChunk(bounds.x, bounds.y));
+        long misses = level.getCacheMisses();
+        level.getLoadedChunk(bounds.x + 1, bounds.y);
+        assertEquals(misses + 1, level.getCacheMisses());
+        assertEquals(2, level.getCacheEvictions());
+        assertTrue(level.getCacheBytes() <= 2 * size + size / 2);
+    }
+
+    public void testKeepsChunkJustAdded() throws IOException {
+        Level level = new Level(this.generate(3), 1);
+        Rectangle bounds = level.getBounds();
+        for (int x = 0; x < 3; x++) {
+            Chunk chunk = level.getLoadedChunk(bounds.x + x, bounds.y);
+            assertEquals(chunk.getLoadedSize(), level.getCacheBytes());
+            assertEquals(x, level.getCacheEvictions());
+            assertSame(chunk, level.getLoadedChunk(bounds.x + x, bounds.y));
+        }
+    }
+
+    public void testSectionsUnpackedWhileCached() throws IOException {
+        File regionDir = new File(this.tempWorld.getDir(), "region");
+        assertTrue(regionDir.mkdir());
+        new RegionFileBuilder()
+                .addChunk(0, 0, AnvilChunkTest.createChunk(AnvilChunkTest.LAYOUT_1_18, 0, 0), RegionFileBuilder.ZLIB, 0)
+                .addChunk(1, 0, AnvilChunkTest.createChunk(AnvilChunkTest.LAYOUT_1_18, 1, 0), RegionFileBuilder.ZLIB, 0)
+                .write(new File(regionDir, "r.0.0.mca"));
+        File levelFile = new File(this.tempWorld.getDir(), "level.dat");
+        int size = new Level(levelFile).getLoadedChunk(0, 0).getLoadedSize();
+
+        Level level = new Level(levelFile, 2 * size - 1);
+        Chunk chunk = level.getLoadedChunk(0, 0);
+        // unpack every section, growing the chunk after it was charged to the cache
+        for (int y = chunk.getMinY(); y <= chunk.getMaxY(); y++) {
+            chunk.getBlockAt(0, 0, y);
+        }
+        assertTrue(chunk.getLoadedSize() > size);
+        level.getLoadedChunk(1, 0);
+        assertEquals(1, level.getCacheEvictions());
+        assertEquals(size, level.getCacheBytes());
+    }
+
+    /**
+     * Write a square of chunk files into the temporary world.
+     *
+     * @param size chunks along each side
+     * @return the level.dat file of the world
+     */
+    private File generate(int size) throws IOException {
+        File worldDir = this.tempWorld.getDir();
+        StringBuilder scratch = new StringBuilder();
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                File f = ChunkIndex.getChunkFile(worldDir, x, z, scratch);
+                f.getParentFile().mkdirs();
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(data);
+                gzip.write(createChunk(x, z));
+                gzip.close();
+                Files.write(f.toPath(), data.toByteArray());
+            }
+        }
+        return new File(worldDir, "level.dat");
+    }
+
+    /**
+     * Build the uncompressed NBT of a chunk in the alpha format: stone up to {@link #GROUND_HEIGHT}, air in full
+     * sky light above.
+     *
+     * @param x chunk x
+     * @param z chunk z
+     * @return the NBT data
+     */
+    static byte[] createChunk(int x, int z) throws IOException {
+        byte[] blocks = new byte[16 * 16 * 128];
+        for (int column = 0; column < 16 * 16; column++) {
+            for (int y = 0; y <= GROUND_HEIGHT; y++) {
+                blocks[column * 128 + y] = 1;
+            }
+        }
+        byte[] skyLight = new byte[16 * 16 * 64];
+        Arrays.fill(skyLight, (byte) 0xff);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        startCompound(out, "");
+        startCompound(out, "Level");
+        writeInt(out, "xPos", x);
+        writeInt(out, "zPos", z);
+        writeByteArray(out, "Blocks", blocks);
+        writeByteArray(out, "SkyLight", skyLight);
+        writeByteArray(out, "BlockLight", new byte[16 * 16 * 64]);
+        // ends Level, then the root compound
+        out.writeByte(0);
+        out.writeByte(0);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void startCompound(DataOutputStream out, String name) throws IOException {
+        out.writeByte(10);
+        out.writeUTF(name);
+    }
+
+    private static void writeInt(DataOutputStream out, String name, int value) throws IOException {
+        out.writeByte(3);
+        out.writeUTF(name);
+        out.writeInt(value);
+    }
+
+    private static void writeByteArray(DataOutputStream out, String name, byte[] value) throws IOException {
+        out.writeByte(7);
+        out.writeUTF(name);
+        out.writeInt(value.length);
+        out.write(value);
+    }
+}
@@ -26,6 +26,7 @@ import com.loumz.mcmapper.nbt.*;
 import junit.framework.TestCase;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 public class NbtReaderTest extends TestCase {
@@ -261,4 +262,154 @@ public class NbtReaderTest extends TestCase {
             fail("IOException" + e);
         }
     }
+
+    public void testSelectedTags() {
+        final String byteArrayName = "byteArrayTest (the first 1000 values of (n*n*255+n*7)%100, starting with n=0 (0, 62, 34, 16, 8, ...))";
+        NbtTagPaths paths = new NbtTagPaths("doubleTest", "nested compound test/egg/name", "longTest",
+                "nested compound test/ham/value", byteArrayName, "listTest (long)", "no such tag");
+        final Object[] values = new Object[paths.size()];
+        try {
+            NbtReader reader = new NbtReader(new ByteArrayInputStream(BIGTEST_NBT));
+            reader.accept(paths, new NbtVisitor() {
+                @Override
+                public void visitLong(int id, long value) {
+                    values[id] = value;
+                }
+
+                @Override
+                public void visitFloat(int id, float value) {
+                    values[id] = value;
+                }
+
+                @Override
+                public void visitDouble(int id, double value) {
+                    values[id] = value;
+                }
+
+                @Override
+                public void visitString(int id, String value) {
+                    values[id] = value;
+                }
+
+                @Override
+                public void visitByteArray(int id, byte[] value, int length) {
+                    assertEquals(value.length, length);
+                    values[id] = value;
+                }
+            });
+            reader.close();
+        }
+        catch (IOException e) {
+            fail("IOException" + e);
+        }
+        assertEquals(0.4931287132182315, (Double) values[0], 0.00000000000000001);
+        assertEquals("Eggbert", values[1]);
+        assertEquals(9223372036854775807L, values[2]);
+        assertEquals(0.75f, (Float) values[3], 0.001f);
+        byte[] bytes = (byte[]) values[4];
+        assertEquals(1000, bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals((i * i * 255 + i * 7) % 100, bytes[i]);
+        }
+        assertNull(values[5]);
+        assertNull(values[6]);
+    }
+
+    public void testSelectedListElements() {
+        NbtTagPaths paths = new NbtTagPaths("listTest (compound)", "listTest (compound)/name", "shortTest");
+        final StringBuilder visited = new StringBuilder();
+        try {
+            NbtReader reader = new NbtReader(new ByteArrayInputStream(BIGTEST_NBT));
+            reader.accept(paths, new NbtVisitor() {
+                @Override
+                public void visitCompoundStart(int id) {
+                    visited.append('{');
+                }
+
+                @Override
+                public void visitCompoundEnd(int id) {
+                    visited.append('}');
+                }
+
+                @Override
+                public void visitString(int id, String value) {
+                    visited.append(value);
+                }
+
+                @Override
+                public void visitShort(int id, short value) {
+                    visited.append(value);
+                }
+            });
+            reader.close();
+        }
+        catch (IOException e) {
+            fail("IOException" + e);
+        }
+        assertEquals("32767{Compound tag #0}{Compound tag #1}", visited.toString());
+    }
+
+    public void testWriter() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new NbtWriter(bytes).beginCompound("hello world")
+                .writeString("name", "Bananrama")
+                .beginList("numbers", NbtItem.TAG_INT, 2)
+                .writeInt(null, 1)
+                .writeInt(null, 2)
+                .writeLongArray("longs", new long[]{Long.MIN_VALUE, 5})
+                .endCompound()
+                .close();
+        NbtReader reader = new NbtReader(bytes.toByteArray(), 0, bytes.size());
+        assertEquals("hello world", reader.readNext().getName());
+        assertEquals("Bananrama", ((NbtStringItem) reader.readNext()).getValue());
+        assertEquals(2, ((NbtListTagItem) reader.readNext()).getLength());
+        assertEquals(1, ((NbtIntItem) reader.readNext()).getValue());
+        assertEquals(2, ((NbtIntItem) reader.readNext()).getValue());
+        assertSame(NbtTagEndItem.class, reader.readNext().getClass());
+        long[] longs = ((NbtLongArrayItem) reader.readNext()).getValue();
+        assertEquals(Long.MIN_VALUE, longs[0]);
+        assertEquals(5, longs[1]);
+        assertSame(NbtTagEndItem.class, reader.readNext().getClass());
+        assertNull(reader.readNext());
+    }
+
+    public void testDecompressionContext() {
+        DecompressionContext context = DecompressionContext.get();
+        try {
+            int length = context.inflateGzip(TEST_NBT, 0, TEST_NBT.length);
+            NbtReader reader = new NbtReader(context.getOutput(), 0, length);
+            NbtItem item = reader.readNext();
+            assertEquals("hello world", item.getName());
+            item = reader.readNext();
+            assertEquals("Bananrama", ((NbtStringItem) item).getValue());
+            assertSame(NbtTagEndItem.class, reader.readNext().getClass());
+            assertNull(reader.readNext());
+        }
+        catch (IOException e) {
+            fail("IOException" + e);
+        }
+
+        byte[] corrupt = TEST_NBT.clone();
+        corrupt[corrupt.length - 6] ^= 1;
+        try {
+            context.inflateGzip(corrupt, 0, corrupt.length);
+            fail("corrupt data accepted");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testReleaseDecompressionContext() throws IOException {
+        DecompressionContext context = DecompressionContext.get();
+        assertSame(context, DecompressionContext.get());
+        DecompressionContext.release();
+        // released twice does nothing
+        DecompressionContext.release();
+        DecompressionContext fresh = DecompressionContext.get();
+        assertNotSame(context, fresh);
+        int length = fresh.inflateGzip(TEST_NBT, 0, TEST_NBT.length);
+        assertEquals("hello world", new NbtReader(fresh.getOutput(), 0, length).readNext().getName());
+        DecompressionContext.release();
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.png.ParallelPngEncoder;
+import com.loumz.mcmapper.png.PngWriter;
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+public class PngWriterTest extends TestCase {
+
+    public void testRoundTrip() throws IOException {
+        int width = 37;
+        int height = 23;
+        // premultiplied pixels as the renderers store them: smooth runs plus noise
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            int a = i % 5 == 0 ? random.nextInt(256) : 255;
+            int r = (i * 3) % 256;
+            int g = random.nextInt(256);
+            int b = i % 7 == 0 ? 0 : 128;
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngWriter writer = new PngWriter(out, width, height);
+        for (int y = 0; y < height; y++) {
+            writer.writeRow(pixels, y * width);
+        }
+        writer.finish();
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(width, decoded.getWidth());
+        assertEquals(height, decoded.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals("pixel " + x + ", " + y, image.getRGB(x, y), decoded.getRGB(x, y));
+            }
+        }
+    }
+
+    public void testParallelRoundTrip() throws IOException {
+        // tall enough for several bands, so the joined streams and combined checksum are exercised
+        int width = 300;
+        int height = 1000;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | (i % 11 == 0 ? random.nextInt(0x1000000) : (i / width * 0x10203) & 0xffffff);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int level : new int[]{Deflater.DEFAULT_COMPRESSION, 0, 9}) {
+                assertParallelRoundTrip(new ParallelPngEncoder(executor, 3, level), image);
+            }
+            // translucent pixels make it RGBA
+            pixels[pixels.length - 1] = 0x80402010;
+            assertParallelRoundTrip(new ParallelPngEncoder(executor, 3, Deflater.DEFAULT_COMPRESSION), image);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertParallelRoundTrip(ParallelPngEncoder encoder, BufferedImage image) throws IOException {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(out, pixels, image.getWidth(), image.getHeight());
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(image.getWidth(), decoded.getWidth());
+        assertEquals(image.getHeight(), decoded.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals("pixel " + x + ", " + y, image.getRGB(x, y), decoded.getRGB(x, y));
+            }
+        }
+    }
+
+    public void testMissingRows() throws IOException {
+        PngWriter writer = new PngWriter(new ByteArrayOutputStream(), 4, 4);
+        writer.writeRow(new int[4], 0);
+        try {
+            writer.finish();
+            fail("finish should require all rows");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
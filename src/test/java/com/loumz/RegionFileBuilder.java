@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Builds region files for tests: the location and timestamp tables, then the sectors of each chunk added.
+ */
+class RegionFileBuilder {
+    static final int GZIP = 1;
+    static final int ZLIB = 2;
+    private static final int SECTOR_SIZE = 4096;
+
+    private final ByteArrayOutputStream sectors = new ByteArrayOutputStream();
+    private final int[] locations = new int[32 * 32];
+    private final int[] timestamps = new int[32 * 32];
+
+    /**
+     * Compress a chunk and append it.
+     *
+     * @param x           chunk x
+     * @param z           chunk z
+     * @param nbt         the uncompressed chunk data
+     * @param compression {@link #GZIP} or {@link #ZLIB}
+     * @param timestamp   the time the chunk was saved, in seconds
+     * @return this builder
+     * @throws IOException never
+     */
+    RegionFileBuilder addChunk(int x, int z, byte[] nbt, int compression, int timestamp) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = compression == GZIP ? new GZIPOutputStream(compressed)
+                : new DeflaterOutputStream(compressed);
+        out.write(nbt);
+        out.close();
+        int start = this.sectors.size() / SECTOR_SIZE + 2;
+        byte[] data = compressed.toByteArray();
+        ByteBuffer header = ByteBuffer.allocate(5);
+        header.putInt(data.length + 1).put((byte) compression);
+        this.sectors.write(header.array());
+        this.sectors.write(data);
+        int count = (data.length + 5 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        this.sectors.write(new byte[count * SECTOR_SIZE - data.length - 5]);
+        this.setLocation(x, z, (start << 8) | count);
+        this.timestamps[index(x, z)] = timestamp;
+        return this;
+    }
+
+    /**
+     * Overwrite the location table entry of a chunk.
+     *
+     * @param location offset in sectors in the upper 24 bits, length in sectors in the lower 8
+     */
+    void setLocation(int x, int z, int location) {
+        this.locations[index(x, z)] = location;
+    }
+
+    /**
+     * @return the offset in the file of the first sector added
+     */
+    static int getDataStart() {
+        return 2 * SECTOR_SIZE;
+    }
+
+    byte[] toByteArray() {
+        ByteBuffer file = ByteBuffer.allocate(2 * SECTOR_SIZE + this.sectors.size());
+        for (int i = 0; i < 32 * 32; i++) {
+            file.putInt(i * 4, this.locations[i]);
+            file.putInt(SECTOR_SIZE + i * 4, this.timestamps[i]);
+        }
+        file.position(2 * SECTOR_SIZE);
+        file.put(this.sectors.toByteArray());
+        return file.array();
+    }
+
+    void write(File file) throws IOException {
+        write(file, this.toByteArray());
+    }
+
+    static void write(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static int index(int x, int z) {
+        return (x & 31) + (z & 31) * 32;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.Chunk;
+import com.loumz.mcmapper.ChunkIndex;
+import com.loumz.mcmapper.RegionFile;
+import com.loumz.mcmapper.RegionWorld;
+import com.loumz.mcmapper.nbt.DecompressionContext;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+public class RegionFileTest extends TestCase {
+    private TempWorld tempWorld;
+    private File regionDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempWorld = new TempWorld();
+        this.regionDir = new File(this.tempWorld.getDir(), "region");
+        assertTrue(this.regionDir.mkdir());
+    }
+
+    @Override
+    protected void tearDown() {
+        this.tempWorld.delete();
+    }
+
+    public void testMcRegion() throws IOException {
+        byte[] zlibChunk = LevelTest.createChunk(-1, -2);
+        byte[] gzipChunk = LevelTest.createChunk(-32, -1);
+        byte[] file = new RegionFileBuilder()
+                .addChunk(-1, -2, zlibChunk, RegionFileBuilder.ZLIB, 1234)
+                .addChunk(-32, -1, gzipChunk, RegionFileBuilder.GZIP, 5678)
+                .toByteArray();
+        RegionFileBuilder.write(new File(this.regionDir, "r.-1.-1.mcr"), file);
+
+        assertTrue(RegionWorld.isRegionWorld(this.tempWorld.getDir()));
+        RegionWorld regions = new RegionWorld(this.tempWorld.getDir());
+        long[] chunks = regions.getChunks();
+        Arrays.sort(chunks);
+        long[] expected = {ChunkIndex.pack(-1, -2), ChunkIndex.pack(-32, -1)};
+        Arrays.sort(expected);
+        assertTrue(Arrays.equals(expected, chunks));
+        assertNull(regions.getChunk(-2, -2));
+        assertNull(regions.getChunk(0, 0));
+
+        RegionFile region = regions.getRegion(-1, -1);
+        assertEquals(1234000L, region.getTimestamp(-1, -2));
+        assertEquals(5678000L, region.getTimestamp(-32, -1));
+
+        Adler32 adler = new Adler32();
+        adler.update(zlibChunk);
+        assertEquals(adler.getValue(), region.getContentHash(-1, -2));
+        CRC32 crc = new CRC32();
+        crc.update(gzipChunk);
+        assertEquals((crc.getValue() << 32) | gzipChunk.length, region.getContentHash(-32, -1));
+        assertEquals(-1, region.getContentHash(-2, -2));
+
+        DecompressionContext context = DecompressionContext.get();
+        assertEquals(zlibChunk.length, region.inflateChunk(-1, -2, context));
+        assertTrue(Arrays.equals(zlibChunk, Arrays.copyOf(context.getOutput(), zlibChunk.length)));
+        // the first chunk added, stored with its length plus the compression type byte
+        int length = ByteBuffer.wrap(file).getInt(RegionFileBuilder.getDataStart()) - 1;
+        assertEquals(length, region.getCompressedLength(-1, -2));
+
+        this.checkChunk(regions.getChunk(-1, -2));
+        this.checkChunk(regions.getChunk(-32, -1));
+    }
+
+    public void testDamagedLocations() throws IOException {
+        byte[] nbt = LevelTest.createChunk(0, 0);
+        RegionFileBuilder builder = new RegionFileBuilder().addChunk(0, 0, nbt, RegionFileBuilder.ZLIB, 0);
+        // inside the tables, past the end of the file, and longer than its sectors
+        builder.setLocation(1, 0, (1 << 8) | 1);
+        builder.setLocation(2, 0, (100 << 8) | 1);
+        builder.setLocation(3, 0, (2 << 8));
+        builder.write(new File(this.regionDir, "r.0.0.mcr"));
+
+        RegionFile region = new RegionWorld(this.tempWorld.getDir()).getRegion(0, 0);
+        for (int x = 1; x <= 3; x++) {
+            assertTrue(region.hasChunk(x, 0));
+            assertEquals(-1, region.getContentHash(x, 0));
+            assertEquals(-1, region.getCompressedLength(x, 0));
+            try {
+                region.inflateChunk(x, 0, DecompressionContext.get());
+                fail("Expected chunk " + x + " to be rejected");
+            }
+            catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testAdlerMismatch() throws IOException {
+        byte[] file = new RegionFileBuilder()
+                .addChunk(0, 0, LevelTest.createChunk(0, 0), RegionFileBuilder.ZLIB, 0)
+                .toByteArray();
+        int start = RegionFileBuilder.getDataStart();
+        int length = ByteBuffer.wrap(file).getInt(start) - 1;
+        // the last byte of the Adler-32 trailer
+        file[start + 5 + length - 1] ^= 1;
+        RegionFileBuilder.write(new File(this.regionDir, "r.0.0.mcr"), file);
+
+        Chunk chunk = new RegionWorld(this.tempWorld.getDir()).getChunk(0, 0);
+        try {
+            chunk.load(true);
+            fail("Expected the corrupt trailer to be detected");
+        }
+        catch (IOException e) {
+            assertEquals("Corrupt zlib data", e.getMessage());
+        }
+    }
+
+    public void testUnreadableRegion() throws IOException {
+        RegionFileBuilder.write(new File(this.regionDir, "r.0.0.mcr"), new byte[100]);
+        try {
+            new RegionWorld(this.tempWorld.getDir()).getChunks();
+            fail("Expected the short region file to be reported");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    private void checkChunk(Chunk chunk) throws IOException {
+        chunk.load(true);
+        try {
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    assertEquals(LevelTest.GROUND_HEIGHT, chunk.getHeightAt(x, z));
+                    assertEquals(1, chunk.getTopBlockAt(x, z));
+                    assertEquals(1, chunk.getBlockAt(x, z, LevelTest.GROUND_HEIGHT));
+                    assertEquals(15, chunk.getSkyLightAt(x, z, LevelTest.GROUND_HEIGHT + 1));
+                }
+            }
+        }
+        finally {
+            chunk.unload();
+        }
+    }
+}
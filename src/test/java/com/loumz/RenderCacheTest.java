@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.Chunk;
+import com.loumz.mcmapper.MapOrientation;
+import com.loumz.mcmapper.RenderCache;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+public class RenderCacheTest extends TestCase {
+    // not the default orientation, so that render order differs from x, z order
+    private static final MapOrientation ORIENTATION = MapOrientation.ESWN;
+    // magic, version and the UTF key "test ESWN"
+    private static final int HEADER_BYTES = 4 + 4 + 2 + 9;
+    // x, z, mtime, length, hash and the tile
+    private static final int ENTRY_BYTES = 4 + 4 + 8 + 8 + 8 + 16 * 16 * 4;
+
+    private TempWorld tempWorld;
+    private File cacheFile;
+    private List<Chunk> chunks;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempWorld = new TempWorld();
+        // the cache only looks at the files' mtime, length and gzip trailer
+        this.chunks = new ArrayList<Chunk>();
+        for (int x = -1; x <= 1; x++) {
+            for (int z = -1; z <= 1; z++) {
+                File f = new File(this.tempWorld.getDir(),
+                        "c." + Integer.toString(x, 36) + "." + Integer.toString(z, 36) + ".dat");
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(data);
+                gzip.write(("chunk " + x + ", " + z).getBytes("US-ASCII"));
+                gzip.close();
+                writeFile(f, data.toByteArray());
+                this.chunks.add(new Chunk(f));
+            }
+        }
+        Collections.sort(this.chunks, new Comparator<Chunk>() {
+            public int compare(Chunk a, Chunk b) {
+                return ORIENTATION.compare(a.getX(), a.getZ(), b.getX(), b.getZ());
+            }
+        });
+        this.cacheFile = new File(this.tempWorld.getDir(), "test.cache");
+    }
+
+    @Override
+    protected void tearDown() {
+        this.tempWorld.delete();
+    }
+
+    public void testRenderOrder() throws IOException {
+        assertEquals(9, this.render(this.chunks, -1));
+
+        // every other chunk: the cache skips the entries in between
+        List<Chunk> some = new ArrayList<Chunk>();
+        for (int i = 0; i < this.chunks.size(); i += 2) {
+            some.add(this.chunks.get(i));
+        }
+        RenderCache cache = new RenderCache(this.cacheFile, "test", ORIENTATION);
+        int[] tile = new int[16 * 16];
+        for (Chunk chunk : some) {
+            assertTrue(cache.lookup(chunk, tile));
+            assertTile(chunk, tile);
+            cache.store(chunk, tile);
+        }
+        assertEquals(some.size(), cache.getHits());
+        assertEquals(0, cache.getMisses());
+        cache.commit();
+        assertFalse(new File(this.cacheFile.getPath() + ".new").exists());
+
+        // only the chunks looked up were kept
+        assertEquals(this.chunks.size() - some.size(), this.render(this.chunks, -1));
+        assertEquals(0, this.render(this.chunks, -1));
+    }
+
+    public void testKeyAndOrientation() throws IOException {
+        this.render(this.chunks, -1);
+        RenderCache cache = new RenderCache(this.cacheFile, "other", ORIENTATION);
+        assertFalse(cache.lookup(this.chunks.get(0), new int[16 * 16]));
+        cache.close();
+        cache = new RenderCache(this.cacheFile, "test", MapOrientation.NESW);
+        assertFalse(cache.lookup(this.chunks.get(0), new int[16 * 16]));
+        cache.close();
+        // closing discards the new cache and keeps the old one
+        assertFalse(new File(this.cacheFile.getPath() + ".new").exists());
+        assertEquals(0, this.render(this.chunks, -1));
+    }
+
+    public void testModifiedWithSameContent() throws IOException {
+        this.render(this.chunks, -1);
+        File touched = this.chunks.get(3).getFile();
+        assertTrue(touched.setLastModified(touched.lastModified() - 60 * 1000));
+        assertEquals(0, this.render(this.chunks, -1));
+
+        // a different chunk's data in the same file
+        writeFile(touched, readFile(this.chunks.get(4).getFile()));
+        assertTrue(touched.setLastModified(touched.lastModified() - 60 * 1000));
+        assertEquals(1, this.render(this.chunks, -1));
+        assertEquals(0, this.render(this.chunks, -1));
+    }
+
+    public void testDamagedCache() throws IOException {
+        this.render(this.chunks, -1);
+        // cut the third entry short: the cache ends at the damage
+        RandomAccessFile raf = new RandomAccessFile(this.cacheFile, "rw");
+        try {
+            assertEquals(HEADER_BYTES + 9 * ENTRY_BYTES, raf.length());
+            raf.setLength(HEADER_BYTES + 2 * ENTRY_BYTES + 100);
+        }
+        finally {
+            raf.close();
+        }
+        assertEquals(7, this.render(this.chunks, -1));
+        assertEquals(0, this.render(this.chunks, -1));
+
+        byte[] garbage = new byte[1000];
+        Arrays.fill(garbage, (byte) 0x55);
+        writeFile(this.cacheFile, garbage);
+        assertEquals(9, this.render(this.chunks, -1));
+        writeFile(this.cacheFile, new byte[0]);
+        assertEquals(9, this.render(this.chunks, -1));
+        assertEquals(0, this.render(this.chunks, -1));
+    }
+
+    public void testStoreSkipsFailedTiles() throws IOException {
+        assertEquals(9, this.render(this.chunks, 4));
+        assertEquals(1, this.render(this.chunks, -1));
+        assertEquals(0, this.render(this.chunks, -1));
+    }
+
+    /**
+     * Look up and store the chunks as a render would, rendering the tiles that miss.
+     *
+     * @param chunks the chunks, in render order
+     * @param failed index of a chunk whose tile fails to render, or -1
+     * @return the number of misses
+     * @throws IOException on cache errors
+     */
+    private int render(List<Chunk> chunks, int failed) throws IOException {
+        RenderCache cache = new RenderCache(this.cacheFile, "test", ORIENTATION);
+        int[] tile = new int[16 * 16];
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            if (cache.lookup(chunk, tile)) {
+                assertTile(chunk, tile);
+            }
+            else {
+                Arrays.fill(tile, tileColor(chunk));
+            }
+            cache.store(chunk, i == failed ? null : tile);
+        }
+        cache.commit();
+        assertEquals(chunks.size(), cache.getHits() + cache.getMisses());
+        return cache.getMisses();
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static void writeFile(File f, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static int tileColor(Chunk chunk) {
+        return 0xff000000 | (chunk.getX() & 0xff) << 8 | chunk.getZ() & 0xff;
+    }
+
+    private static void assertTile(Chunk chunk, int[] tile) {
+        int[] expected = new int[16 * 16];
+        Arrays.fill(expected, tileColor(chunk));
+        assertTrue(Arrays.equals(expected, tile));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.ChunkIndex;
+import com.loumz.mcmapper.CommandLine;
+import com.loumz.mcmapper.DrawMapAction;
+import com.loumz.mcmapper.MapOrientation;
+import com.loumz.mcmapper.RenderStats;
+import com.loumz.mcmapper.SyntheticWorld;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+public class RenderStatsTest extends TestCase {
+
+    public void testRenderStats() throws Exception {
+        TempWorld tempWorld = new TempWorld();
+        try {
+            File levelFile = tempWorld.generate(new SyntheticWorld(), 3);
+            DrawMapAction action = new DrawMapAction(levelFile, null, MapOrientation.NESW);
+            action.setOutputFile(new File(tempWorld.getDir(), "level.png"));
+            assertNull(action.getStats());
+            action.run();
+            if (action.getFailure() != null) {
+                throw action.getFailure();
+            }
+
+            RenderStats stats = action.getStats();
+            assertEquals(9, stats.getChunksRendered());
+            assertEquals(0, stats.getChunksFailed());
+            assertEquals(0, stats.getChunksCached());
+            assertTrue(stats.getBytesRead() > 0);
+            // at least the blocks and light of every chunk
+            assertTrue(stats.getBytesInflated() > 9 * 16 * 16 * 128 * 2);
+            assertTrue(stats.getBytesInflated() > stats.getBytesRead());
+            assertTrue(stats.getDecodeMicros(50) <= stats.getDecodeMicros(99));
+            assertTrue(stats.getNanos(RenderStats.Stage.INFLATE) > 0);
+            assertTrue(stats.getNanos(RenderStats.Stage.ENCODE) > 0);
+            assertTrue(stats.getWallNanos() >= stats.getNanos(RenderStats.Stage.ENCODE));
+
+            StringWriter out = new StringWriter();
+            stats.write(new PrintWriter(out));
+            assertTrue(out.toString().contains("chunks.rendered=9"));
+            assertTrue(out.toString().contains("stage.parse.ms="));
+        }
+        finally {
+            tempWorld.delete();
+        }
+    }
+
+    public void testStatsFile() throws Exception {
+        TempWorld tempWorld = new TempWorld();
+        try {
+            File levelFile = tempWorld.generate(new SyntheticWorld(), 3);
+            File statsFile = new File(tempWorld.getDir(), "stats.txt");
+            PrintStream err = new PrintStream(new ByteArrayOutputStream());
+            assertEquals(CommandLine.EXIT_OK, CommandLine.run(new String[]{"--stats", statsFile.getPath(),
+                    levelFile.getPath()}, err));
+            assertTrue(new String(Files.readAllBytes(statsFile.toPath()), "UTF-8").contains("chunks.rendered=9"));
+            // a directory cannot be written as a file
+            assertEquals(CommandLine.EXIT_STATS_FAILED, CommandLine.run(new String[]{"--stats",
+                    tempWorld.getDir().getPath(), levelFile.getPath()}, err));
+        }
+        finally {
+            tempWorld.delete();
+        }
+    }
+
+    public void testFailedChunks() throws Exception {
+        TempWorld tempWorld = new TempWorld();
+        try {
+            File levelFile = tempWorld.generate(new SyntheticWorld(), 3);
+            StringBuilder scratch = new StringBuilder();
+            for (int x = -1; x <= 1; x++) {
+                for (int z = -1; z <= 1; z++) {
+                    Files.write(ChunkIndex.getChunkFile(tempWorld.getDir(), x, z, scratch).toPath(), new byte[100]);
+                }
+            }
+            DrawMapAction action = new DrawMapAction(levelFile, null, MapOrientation.NESW);
+            action.setOutputFile(new File(tempWorld.getDir(), "level.png"));
+            action.setIncremental(true);
+            action.run();
+            if (action.getFailure() != null) {
+                throw action.getFailure();
+            }
+
+            RenderStats stats = action.getStats();
+            assertEquals(0, stats.getChunksRendered());
+            assertEquals(9, stats.getChunksFailed());
+            // no chunk loaded, so there is nothing to sample
+            assertEquals(0, stats.getDecodeMicros(50));
+            assertEquals(0, stats.getDecodeMicros(99));
+            assertTrue(stats.getNanos(RenderStats.Stage.SETUP) > 0);
+            assertTrue(stats.getNanos(RenderStats.Stage.CACHE) > 0);
+        }
+        finally {
+            tempWorld.delete();
+        }
+    }
+}
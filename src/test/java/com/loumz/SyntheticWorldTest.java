@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.Chunk;
+import com.loumz.mcmapper.ChunkIndex;
+import com.loumz.mcmapper.SyntheticWorld;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class SyntheticWorldTest extends TestCase {
+
+    public void testDeterministic() {
+        SyntheticWorld a = new SyntheticWorld();
+        SyntheticWorld b = new SyntheticWorld();
+        a.setThreadCount(1);
+        b.setThreadCount(3);
+        assertTrue(Arrays.equals(a.createChunk(-3, 5), b.createChunk(-3, 5)));
+        b.setSeed(a.getSeed() + 1);
+        assertFalse(Arrays.equals(a.createChunk(-3, 5), b.createChunk(-3, 5)));
+    }
+
+    public void testGenerate() throws IOException {
+        TempWorld tempWorld = new TempWorld();
+        SyntheticWorld world = new SyntheticWorld();
+        world.setWaterLevel(0);
+        world.setLavaChance(0);
+        world.setTorchChance(0);
+        try {
+            File levelFile = tempWorld.generate(world, 4);
+            assertTrue(levelFile.isFile());
+            ChunkIndex index = new ChunkIndex(tempWorld.getDir(), null);
+            index.update();
+            assertEquals(16, index.getChunkCount());
+            StringBuilder path = new StringBuilder();
+            for (int x = -2; x < 2; x++) {
+                for (int z = -2; z < 2; z++) {
+                    Chunk chunk = new Chunk(ChunkIndex.getChunkFile(tempWorld.getDir(), x, z, path), x, z);
+                    chunk.load(true);
+                    for (int bx = 0; bx < 16; bx++) {
+                        for (int bz = 0; bz < 16; bz++) {
+                            int height = world.getGroundHeight(x * 16 + bx, z * 16 + bz);
+                            assertEquals(height, chunk.getHeightAt(bx, bz));
+                            assertEquals(2, chunk.getTopBlockAt(bx, bz));
+                            assertEquals(15, chunk.getSkyLightAt(bx, bz, height + 1));
+                            assertEquals(0, chunk.getSkyLightAt(bx, bz, height));
+                        }
+                    }
+                    chunk.unload();
+                }
+            }
+        }
+        finally {
+            tempWorld.delete();
+        }
+    }
+}
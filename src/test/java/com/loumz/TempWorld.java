@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.SyntheticWorld;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A temporary directory for tests that write a world or a map to disk. {@link #delete} removes it with everything in
+ * it.
+ */
+class TempWorld {
+    private final File dir;
+
+    TempWorld() throws IOException {
+        this.dir = File.createTempFile("mcmapper-test", "");
+        if (!this.dir.delete() || !this.dir.mkdir()) {
+            throw new IOException("Cannot create " + this.dir);
+        }
+    }
+
+    /**
+     * @return the directory
+     */
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * Generate a world in the directory.
+     *
+     * @param world the generator
+     * @param side  width and depth of the world in chunks
+     * @return the level.dat file
+     * @throws IOException on write errors
+     */
+    File generate(SyntheticWorld world, int side) throws IOException {
+        return world.generate(this.dir, side);
+    }
+
+    /**
+     * Delete the directory and everything in it.
+     */
+    void delete() {
+        deleteTree(this.dir);
+    }
+
+    static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        f.delete();
+    }
+}
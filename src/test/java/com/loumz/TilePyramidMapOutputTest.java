@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2010 William Shallum
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.loumz;
+
+import com.loumz.mcmapper.TilePyramidMapOutput;
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+public class TilePyramidMapOutputTest extends TestCase {
+    private static final int TILE_SIZE = TilePyramidMapOutput.TILE_SIZE;
+    // 320x640 blocks: zoom 2 has 2x3 tiles, zoom 1 1x2 and zoom 0 one
+    private static final int TILES_WIDE = 20;
+    private static final int ROWS = 40;
+
+    private TempWorld tempDir;
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempDir = new TempWorld();
+        this.dir = this.tempDir.getDir();
+    }
+
+    @Override
+    protected void tearDown() {
+        this.tempDir.delete();
+    }
+
+    public void testLayout() throws IOException {
+        // the first band is full, the second only 16 chunks wide and the last only 4
+        int[] tilesPerRow = new int[ROWS];
+        for (int row = 0; row < ROWS; row++) {
+            tilesPerRow[row] = row < 16 ? TILES_WIDE : row < 32 ? 16 : 4;
+        }
+        TilePyramidMapOutput output = new TilePyramidMapOutput(this.dir, TILES_WIDE, tilesPerRow,
+                Deflater.DEFAULT_COMPRESSION);
+        int[] tile = new int[16 * 16];
+        for (int row = 0; row < ROWS; row++) {
+            for (int tileX = 0; tileX < tilesPerRow[row]; tileX++) {
+                Arrays.fill(tile, tileColor(tileX, row));
+                output.writeTile(tileX, row, tile);
+            }
+            if (row == 15) {
+                // each band is written as soon as it is complete
+                assertTrue(tileFile(2, 0, 0).isFile());
+                assertTrue(tileFile(2, 1, 0).isFile());
+                assertFalse(tileFile(2, 0, 1).exists());
+                assertFalse(new File(this.dir, "1").exists());
+            }
+            else if (row == 31) {
+                assertTrue(tileFile(2, 0, 1).isFile());
+                assertTrue(tileFile(1, 0, 0).isFile());
+                assertFalse(tileFile(1, 0, 1).exists());
+            }
+        }
+        output.finish(null);
+
+        for (int zoom = 0; zoom <= 2; zoom++) {
+            // blocks per pixel
+            int scale = 1 << (2 - zoom);
+            for (int x = 0; x < (TILES_WIDE * 16 / scale + TILE_SIZE - 1) / TILE_SIZE; x++) {
+                for (int y = 0; y < (ROWS * 16 / scale + TILE_SIZE - 1) / TILE_SIZE; y++) {
+                    assertTile(tilesPerRow, zoom, x, y);
+                }
+            }
+        }
+        assertFalse(tileFile(2, 0, 3).exists());
+        assertFalse(tileFile(2, 2, 0).exists());
+        assertFalse(tileFile(1, 1, 0).exists());
+    }
+
+    public void testDownsample() throws IOException {
+        // 17 chunks wide gives two zoom levels; only the first chunk is drawn
+        TilePyramidMapOutput output = new TilePyramidMapOutput(this.dir, 17, new int[]{1},
+                Deflater.DEFAULT_COMPRESSION);
+        int[] tile = new int[16 * 16];
+        tile[0] = 0xff102030;
+        tile[1] = 0xff304050;
+        tile[16] = 0xff000000;
+        tile[17] = 0xff000004;
+        // premultiplied, with three transparent neighbours
+        tile[2] = 0xff804020;
+        output.writeTile(0, 0, tile);
+        output.finish(null);
+
+        BufferedImage full = readTile(1, 0, 0);
+        assertEquals(0xff304050, full.getRGB(1, 0));
+        assertEquals(0, full.getRGB(2, 1));
+        BufferedImage half = readTile(0, 0, 0);
+        // rounded averages of each channel
+        assertEquals(0xff101821, half.getRGB(0, 0));
+        assertEquals(premultiplied(0x40201008).getRGB(0, 0), half.getRGB(1, 0));
+        assertEquals(0, half.getRGB(2, 0));
+        assertEquals(0, half.getRGB(TILE_SIZE - 1, TILE_SIZE - 1));
+        assertFalse(tileFile(1, 1, 0).exists());
+    }
+
+    public void testMissingAndUnexpectedTiles() throws IOException {
+        TilePyramidMapOutput output = new TilePyramidMapOutput(this.dir, 2, new int[]{2, 1},
+                Deflater.DEFAULT_COMPRESSION);
+        int[] tile = new int[16 * 16];
+        Arrays.fill(tile, 0xff000000);
+        output.writeTile(0, 0, tile);
+        output.writeTile(1, 0, tile);
+        try {
+            output.writeTile(1, 1, tile);
+            output.writeTile(0, 1, tile);
+            fail("the band was complete");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+
+        output = new TilePyramidMapOutput(this.dir, 2, new int[]{2, 1}, Deflater.DEFAULT_COMPRESSION);
+        output.writeTile(0, 0, tile);
+        try {
+            output.finish(null);
+            fail("tiles are missing");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Check every pixel of a written tile against the chunk tiles it covers.
+     */
+    private void assertTile(int[] tilesPerRow, int zoom, int x, int y) throws IOException {
+        int scale = 1 << (2 - zoom);
+        boolean drawn = false;
+        int[] expected = new int[TILE_SIZE * TILE_SIZE];
+        for (int py = 0; py < TILE_SIZE; py++) {
+            for (int px = 0; px < TILE_SIZE; px++) {
+                int tileX = (x * TILE_SIZE + px) * scale / 16;
+                int row = (y * TILE_SIZE + py) * scale / 16;
+                if (row < ROWS && tileX < tilesPerRow[row]) {
+                    expected[py * TILE_SIZE + px] = tileColor(tileX, row);
+                    drawn = true;
+                }
+            }
+        }
+        File file = tileFile(zoom, x, y);
+        assertEquals(file.getPath(), drawn, file.exists());
+        if (drawn) {
+            BufferedImage image = readTile(zoom, x, y);
+            for (int py = 0; py < TILE_SIZE; py++) {
+                for (int px = 0; px < TILE_SIZE; px++) {
+                    assertEquals(file + " pixel " + px + ", " + py, expected[py * TILE_SIZE + px],
+                            image.getRGB(px, py));
+                }
+            }
+        }
+    }
+
+    private BufferedImage readTile(int zoom, int x, int y) throws IOException {
+        BufferedImage image = ImageIO.read(tileFile(zoom, x, y));
+        assertEquals(TILE_SIZE, image.getWidth());
+        assertEquals(TILE_SIZE, image.getHeight());
+        return image;
+    }
+
+    private File tileFile(int zoom, int x, int y) {
+        return new File(this.dir, zoom + File.separator + x + File.separator + y + ".png");
+    }
+
+    private static int tileColor(int tileX, int row) {
+        return 0xff000000 | tileX << 16 | row << 8 | 0x80;
+    }
+
+    private static BufferedImage premultiplied(int pixel) {
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB_PRE);
+        image.getRaster().setDataElements(0, 0, new int[]{pixel});
+        return image;
+    }
+}